@@ -0,0 +1,80 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Inputs shared by the benchmarks: the sample images in {@code test/input} plus
+ * synthetic images that sit at the two extremes of the quadtree's behaviour.
+ * Random noise never looks homogeneous and forces the deepest possible tree,
+ * while a smooth gradient collapses into large leaves.
+ *
+ * <p>Image names are either a file in the sample directory ({@code cat.png}) or
+ * {@code noise-<size>} / {@code gradient-<size>} for a square synthetic image.
+ * The sample directory defaults to {@code ../test/input} and can be changed with
+ * {@code -Dbench.images=<dir>}.
+ */
+final class BenchmarkImages {
+    private static final long NOISE_SEED = 13523146L;
+
+    private BenchmarkImages() {
+    }
+
+    static BufferedImage load(String name) {
+        if (name.startsWith("noise-")) {
+            return noise(Integer.parseInt(name.substring("noise-".length())));
+        }
+        if (name.startsWith("gradient-")) {
+            return gradient(Integer.parseInt(name.substring("gradient-".length())));
+        }
+
+        File file = new File(System.getProperty("bench.images", "../test/input"), name);
+        try {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                throw new IllegalArgumentException("Unsupported benchmark image: " + file);
+            }
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read benchmark image: " + file, e);
+        }
+    }
+
+    static BufferedImage noise(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(NOISE_SEED);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    static BufferedImage gradient(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int r = x * 255 / Math.max(1, size - 1);
+                int g = y * 255 / Math.max(1, size - 1);
+                int b = (x + y) * 255 / Math.max(1, 2 * size - 2);
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Maps a fraction of a method's threshold range onto an actual threshold so
+     * that one parameter list works for every method.
+     */
+    static double threshold(ErrorCalculationMethod method, double fraction) {
+        double min = ThresholdSearch.getMinThresholdForMethod(method);
+        double max = ThresholdSearch.getMaxThresholdForMethod(method);
+        return min + (max - min) * fraction;
+    }
+}
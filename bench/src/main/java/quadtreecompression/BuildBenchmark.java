@@ -0,0 +1,88 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end {@link Quadtree#build()} at several image sizes and thresholds,
+ * including the per-image pixel and index setup, plus the compact, parallel and
+ * level-by-level variants.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BuildBenchmark {
+    @Param({"gradient-1024", "noise-512", "noise-2048", "cat.png", "cherry.jpg", "samurai.jpg"})
+    public String image;
+
+    @Param({"VARIANCE", "MAD", "MAX_PIXEL_DIFFERENCE", "ENTROPY", "SSIM"})
+    public ErrorCalculationMethod method;
+
+    /** Threshold as a fraction of the method's search range. */
+    @Param({"0.005", "0.05"})
+    public double thresholdFraction;
+
+    @Param({"4"})
+    public int minBlockSize;
+
+    private BufferedImage source;
+    private double threshold;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = BenchmarkImages.load(image);
+        threshold = BenchmarkImages.threshold(method, thresholdFraction);
+    }
+
+    @Benchmark
+    public Quadtree build() {
+        Quadtree quadtree = new Quadtree(source, threshold, minBlockSize, method);
+        quadtree.build();
+        return quadtree;
+    }
+
+    @Benchmark
+    public Quadtree buildParallel() {
+        Quadtree quadtree = new Quadtree(source, threshold, minBlockSize, method);
+        quadtree.setParallelism(Runtime.getRuntime().availableProcessors());
+        quadtree.build();
+        return quadtree;
+    }
+
+    @Benchmark
+    public Quadtree buildLevelByLevel() {
+        Quadtree quadtree = new Quadtree(source, threshold, minBlockSize, method);
+        quadtree.buildLevelByLevel();
+        return quadtree;
+    }
+
+    @Benchmark
+    public Quadtree buildLevelByLevelParallel() {
+        Quadtree quadtree = new Quadtree(source, threshold, minBlockSize, method);
+        quadtree.setParallelism(Runtime.getRuntime().availableProcessors());
+        quadtree.buildLevelByLevel();
+        return quadtree;
+    }
+
+    @Benchmark
+    public CompactQuadtree buildCompact() {
+        CompactQuadtree quadtree = new CompactQuadtree(source, threshold, minBlockSize, method);
+        quadtree.build();
+        return quadtree;
+    }
+}
@@ -0,0 +1,77 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of a single error evaluation per {@link ErrorCalculationMethod}, for
+ * blocks of several sizes. Each invocation evaluates every block of the given
+ * size that tiles the image, which is what one depth level of the build does.
+ * {@link #indexBuild} measures the per-image setup that the kernels rely on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ErrorKernelBenchmark {
+    @Param({"VARIANCE", "MAD", "MAX_PIXEL_DIFFERENCE", "ENTROPY", "SSIM"})
+    public ErrorCalculationMethod method;
+
+    @Param({"8", "64", "512"})
+    public int blockSize;
+
+    @Param({"noise-1024", "cat.png"})
+    public String image;
+
+    private PixelBuffer pixels;
+    private ErrorCalculator calculator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BufferedImage source = BenchmarkImages.load(image);
+        pixels = PixelBuffer.fromImage(source);
+        calculator = new ErrorCalculator(pixels, method);
+    }
+
+    @Benchmark
+    public void errorPerBlock(Blackhole blackhole) {
+        int width = calculator.getWidth();
+        int height = calculator.getHeight();
+        for (int y = 0; y + blockSize <= height; y += blockSize) {
+            for (int x = 0; x + blockSize <= width; x += blockSize) {
+                blackhole.consume(calculator.calculateError(x, y, blockSize, blockSize));
+            }
+        }
+    }
+
+    @Benchmark
+    public void averageColorPerBlock(Blackhole blackhole) {
+        int width = calculator.getWidth();
+        int height = calculator.getHeight();
+        for (int y = 0; y + blockSize <= height; y += blockSize) {
+            for (int x = 0; x + blockSize <= width; x += blockSize) {
+                blackhole.consume(calculator.calculateAverageColor(x, y, blockSize, blockSize));
+            }
+        }
+    }
+
+    @Benchmark
+    public ErrorCalculator indexBuild() {
+        return new ErrorCalculator(pixels, method);
+    }
+}
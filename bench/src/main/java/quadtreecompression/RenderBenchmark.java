@@ -0,0 +1,69 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code getCompressedImage()} on prebuilt trees, with few large leaves and with
+ * many small ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class RenderBenchmark {
+    @Param({"cherry.jpg", "noise-2048"})
+    public String image;
+
+    /** Threshold as a fraction of the variance search range. */
+    @Param({"0.005", "0.05"})
+    public double thresholdFraction;
+
+    private Quadtree quadtree;
+    private Quadtree parallelQuadtree;
+    private CompactQuadtree compactQuadtree;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BufferedImage source = BenchmarkImages.load(image);
+        ErrorCalculationMethod method = ErrorCalculationMethod.VARIANCE;
+        double threshold = BenchmarkImages.threshold(method, thresholdFraction);
+
+        quadtree = new Quadtree(source, threshold, 1, method);
+        quadtree.build();
+        parallelQuadtree = new Quadtree(source, threshold, 1, method);
+        parallelQuadtree.setParallelism(Runtime.getRuntime().availableProcessors());
+        parallelQuadtree.build();
+        compactQuadtree = new CompactQuadtree(source, threshold, 1, method);
+        compactQuadtree.build();
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return quadtree.getCompressedImage();
+    }
+
+    @Benchmark
+    public BufferedImage renderParallel() {
+        return parallelQuadtree.getCompressedImage();
+    }
+
+    @Benchmark
+    public BufferedImage renderCompact() {
+        return compactQuadtree.getCompressedImage();
+    }
+}
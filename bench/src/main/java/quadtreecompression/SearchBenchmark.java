@@ -0,0 +1,66 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole target-compression loop that {@code Main.findOptimalParameters}
+ * runs: building the full tree once, then cutting, rendering and encoding every
+ * candidate threshold until the target is met.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SearchBenchmark {
+    @Param({"cat.png", "cherry.jpg", "samurai.jpg"})
+    public String image;
+
+    @Param({"VARIANCE", "MAX_PIXEL_DIFFERENCE"})
+    public ErrorCalculationMethod method;
+
+    @Param({"png", "qtc"})
+    public String format;
+
+    @Param({"0.6"})
+    public double targetCompression;
+
+    @Param({"10"})
+    public int maxAttempts;
+
+    private BufferedImage source;
+    private long originalSize;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = BenchmarkImages.load(image);
+        originalSize = new File(System.getProperty("bench.images", "../test/input"), image).length();
+    }
+
+    @Benchmark
+    public ThresholdSearch.Result findOptimalParameters() throws IOException {
+        CompactQuadtree fullTree = new CompactQuadtree(source, 0.0, 4, method);
+        fullTree.buildFull();
+
+        ThresholdSearch search = new ThresholdSearch(fullTree, format, originalSize, targetCompression);
+        search.setMaxAttempts(maxAttempts);
+        search.setThreadCount(Runtime.getRuntime().availableProcessors());
+        return search.search(ThresholdSearch.getMinThresholdForMethod(method), ThresholdSearch.getMaxThresholdForMethod(method));
+    }
+}
@@ -4,10 +4,10 @@ mkdir bin
 
 echo Compiling java code...
 dir /s /b src\*.java > sources.txt
-javac -d bin\ @sources.txt
+javac --add-modules jdk.incubator.vector -d bin\ @sources.txt
 del sources.txt
 
 echo Running the main program...
-java -cp bin Main
+java --add-modules jdk.incubator.vector -cp bin Main
 
 pause
\ No newline at end of file
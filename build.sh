@@ -5,8 +5,8 @@ rm -rf bin/*
 
 echo "Compiling java code..."
 find src -name "*.java" > sources.txt
-javac -d bin/ @sources.txt
+javac --add-modules jdk.incubator.vector -d bin/ @sources.txt
 rm sources.txt
 
 echo "Running the main program..."
-java -cp bin Main
\ No newline at end of file
+java --add-modules jdk.incubator.vector -cp bin Main
\ No newline at end of file
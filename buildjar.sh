@@ -10,7 +10,7 @@ echo "Main-Class: Main" >> manifest.txt
 
 echo "Compiling java code..."
 find src -name "*.java" > sources.txt
-javac -d bin/ @sources.txt
+javac --add-modules jdk.incubator.vector -d bin/ @sources.txt
 rm sources.txt
 
 echo "Creating executable JAR..."
@@ -18,4 +18,4 @@ jar cvfm QuadtreeCompression.jar manifest.txt -C bin .
 rm manifest.txt
 
 echo "Done!"
-echo "java -jar QuadtreeCompression.jar"
\ No newline at end of file
+echo "java --add-modules jdk.incubator.vector -jar QuadtreeCompression.jar"
\ No newline at end of file
@@ -1,19 +1,51 @@
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Scanner;
-import javax.imageio.ImageIO;
+import quadtreecompression.BatchCompressor;
+import quadtreecompression.BatchOptions;
+import quadtreecompression.CompactQuadtree;
+import quadtreecompression.CompressionCache;
+import quadtreecompression.CompressionMetrics;
+import quadtreecompression.CompressionServer;
 import quadtreecompression.ErrorCalculationMethod;
+import quadtreecompression.ImageEncoder;
 import quadtreecompression.InputManager;
+import quadtreecompression.FrameSequence;
+import quadtreecompression.ProgressiveWriter;
+import quadtreecompression.QtcWriter;
 import quadtreecompression.Quadtree;
+import quadtreecompression.SequenceCompressor;
+import quadtreecompression.SequenceOptions;
+import quadtreecompression.ServerOptions;
+import quadtreecompression.ThresholdSearch;
 
 public class Main {
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--serve")) {
+            runServer(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--sequence")) {
+            runSequence(args);
+            return;
+        }
+        if (args.length > 0) {
+            runBatch(args);
+            return;
+        }
+
         try (Scanner scanner = new Scanner(System.in)) {
+            CompressionMetrics metrics = new CompressionMetrics();
+            // Lets the final build reuse the pixel indices of the tree built for the threshold search
+            CompressionCache cache = new CompressionCache(Runtime.getRuntime().maxMemory() / 4);
             InputManager inputManager = new InputManager();
+            inputManager.setMetrics(metrics);
+            inputManager.setCache(cache);
             inputManager.getUserImage(scanner);
             inputManager.getUserErrorMethod(scanner);
             inputManager.getUserMinimumCompressionPercentage(scanner);
@@ -29,24 +61,50 @@ public class Main {
             File inputFile = new File(inputManager.getImageInputPath());
             long originalSize = inputFile.length();
 
-            if (inputManager.getMinCompressionPercentage() > 0.0) {
-                findOptimalParameters(inputManager, originalSize);
+            String outputPath = inputManager.getImageOutputPath();
+            String extension = outputPath.substring(outputPath.lastIndexOf('.') + 1).toLowerCase();
+
+            // The size of a .qtc file follows from its node count, so a target for it is met by a single budgeted build
+            boolean budgeted = inputManager.getMinCompressionPercentage() > 0.0 && extension.equals(QtcWriter.EXTENSION);
+            long byteBudget = (long) (originalSize * (1 - inputManager.getMinCompressionPercentage()));
+            // Shared by the threshold search and the final write so both reuse the same writers
+            ImageEncoder encoder = new ImageEncoder(extension);
+            if (inputManager.getMinCompressionPercentage() > 0.0 && !budgeted) {
+                findOptimalParameters(inputManager, cache, encoder, originalSize, metrics);
             }
 
             long startTime = System.currentTimeMillis();
-            Quadtree quadtree = new Quadtree(inputManager.getImage(), inputManager.getErrorThreshold(), inputManager.getMinimumBlockSize(), inputManager.getMethod());
-            quadtree.build();
+            Quadtree quadtree = cache.newQuadtree(inputManager.getSource(), inputManager.getErrorThreshold(), inputManager.getMinimumBlockSize(), inputManager.getMethod());
+            quadtree.setParallelism(Runtime.getRuntime().availableProcessors());
+            quadtree.setMetrics(metrics);
+            if (budgeted) {
+                // Only the byte budget limits the build; blocks without any error are never split
+                quadtree.buildBestFirst(Integer.MAX_VALUE, byteBudget, Double.MIN_VALUE);
+            } else {
+                quadtree.build();
+            }
 
             long endTime = System.currentTimeMillis();
             long executionTime = endTime - startTime;
 
-            BufferedImage compressedImage = quadtree.getCompressedImage();
-            String outputPath = inputManager.getImageOutputPath();
-            String extension = outputPath.substring(outputPath.lastIndexOf('.') + 1).toLowerCase();
-
             File outputFile = new File(outputPath);
             try {
-                ImageIO.write(compressedImage, extension, outputFile);
+                if (extension.equals(QtcWriter.EXTENSION)) {
+                    try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE);
+                            FileOutputStream outputStream = new FileOutputStream(outputFile)) {
+                        QtcWriter.write(quadtree, outputStream);
+                    }
+                } else if (extension.equals(ProgressiveWriter.EXTENSION)) {
+                    try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE);
+                            FileOutputStream outputStream = new FileOutputStream(outputFile)) {
+                        ProgressiveWriter.write(quadtree, outputStream);
+                    }
+                } else {
+                    BufferedImage compressedImage = quadtree.getCompressedImage();
+                    try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE)) {
+                        encoder.write(compressedImage, outputFile.toPath());
+                    }
+                }
             } catch (IOException e) {
                 System.out.println("Terjadi kesalahan saat menyimpan gambar: " + e.getMessage());
             }
@@ -65,8 +123,15 @@ public class Main {
             System.out.printf("Persentase kompresi          : %.2f%%\n", compressionPercentage);
             System.out.println("Kedalaman pohon              : " + treeDepth);
             System.out.println("Banyak node                  : " + nodeCount);
-
-            if (inputManager.getMinCompressionPercentage() > 0.0) {
+            System.out.printf("Rincian waktu                : decode %d ms, build %d ms, render %d ms, encode %d ms\n",
+                    metrics.getPhaseMillis(CompressionMetrics.Phase.DECODE), metrics.getPhaseMillis(CompressionMetrics.Phase.BUILD),
+                    metrics.getPhaseMillis(CompressionMetrics.Phase.RENDER), metrics.getPhaseMillis(CompressionMetrics.Phase.ENCODE));
+            System.out.println("Evaluasi error               : " + metrics.getErrorEvaluations());
+            System.out.println("Piksel dibaca                : " + metrics.getPixelsRead());
+
+            if (budgeted) {
+                System.out.println("- Batas ukuran              : " + formatFileSize(byteBudget));
+            } else if (inputManager.getMinCompressionPercentage() > 0.0) {
                 System.out.println("- Error threshold           : " + inputManager.getErrorThreshold());
             }
         } catch (Exception e) {
@@ -74,6 +139,94 @@ public class Main {
         }
     }
 
+    private static void runBatch(String[] args) {
+        if (args[0].equals("--help")) {
+            System.out.println(BatchOptions.USAGE);
+            return;
+        }
+
+        BatchOptions options;
+        try {
+            options = BatchOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println(BatchOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            int failures = new BatchCompressor(options).run();
+            if (failures > 0) {
+                System.err.println(failures + " gambar gagal diproses.");
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void runSequence(String[] args) {
+        if (args.length > 1 && args[1].equals("--help")) {
+            System.out.println(SequenceOptions.USAGE);
+            return;
+        }
+
+        SequenceOptions options;
+        try {
+            options = SequenceOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println(SequenceOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        SequenceCompressor compressor = new SequenceCompressor(options.getThreshold(), options.getMinimumBlockSize(), options.getMethod());
+        compressor.setParallelism(Runtime.getRuntime().availableProcessors());
+        if (!Float.isNaN(options.getQuality())) {
+            compressor.setCompressionQuality(options.getQuality());
+        }
+        try (FrameSequence frames = FrameSequence.open(options.getInput())) {
+            int count = compressor.compress(frames, options.getOutputDirectory(), options.getFormat(), frame ->
+                    System.out.printf("[frame %d] berubah %.2f%%, build %d ms, %d node%n",
+                            frame.index(), frame.changedFraction() * 100, frame.buildMillis(), frame.tree().getNodeCount()));
+            System.out.println(count + " frame disimpan di " + options.getOutputDirectory());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void runServer(String[] args) {
+        if (args.length > 0 && args[0].equals("--help")) {
+            System.out.println(ServerOptions.USAGE);
+            return;
+        }
+
+        ServerOptions options;
+        try {
+            options = ServerOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println(ServerOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        CompressionServer server = new CompressionServer(options);
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(5)));
+        System.out.println("Server berjalan di port " + server.getPort() + " (tekan Ctrl+C untuk berhenti)");
+    }
+
     private static String formatFileSize(long size) {
         final String[] units = new String[] {"B", "KB", "MB", "GB"};
         int unitIndex = 0;
@@ -87,159 +240,42 @@ public class Main {
         return String.format("%.2f %s", dataSize, units[unitIndex]);
     }
 
-    private static double getMinThresholdForMethod(ErrorCalculationMethod method) {
-        switch (method) {
-            case ErrorCalculationMethod.VARIANCE -> {
-                return 1.0;
-            }
-            case ErrorCalculationMethod.MAD -> {
-                return 0.5;
-            }
-            case ErrorCalculationMethod.MAX_PIXEL_DIFFERENCE -> {
-                return 1.0;
-            }
-            case ErrorCalculationMethod.ENTROPY -> {
-                return 0.05;
-            }
-            case ErrorCalculationMethod.SSIM -> {
-                return 0.1;
-            }
-            default -> {
-                return 0.1;
-            }
-        }
-    }
-
-    private static double getMaxThresholdForMethod(ErrorCalculationMethod method) {
-        switch (method) {
-            case ErrorCalculationMethod.VARIANCE -> {
-                return 16256.25;
-            }
-            case ErrorCalculationMethod.MAD -> {
-                return 127.25;
-            }
-            case ErrorCalculationMethod.MAX_PIXEL_DIFFERENCE -> {
-                return 255.0;
-            }
-            case ErrorCalculationMethod.ENTROPY -> {
-                return 8.0;
-            }
-            case ErrorCalculationMethod.SSIM -> {
-                return 1.0;
-            }
-            default -> {
-                return 100.0;
-            }
-        }
-    }
-
-    private static void findOptimalParameters(InputManager inputManager, long originalSize) throws IOException {
+    private static void findOptimalParameters(InputManager inputManager, CompressionCache cache, ImageEncoder encoder, long originalSize, CompressionMetrics metrics) throws IOException {
         System.out.println("\nMencari parameter optimal...");
 
         double targetCompressionPercentage = inputManager.getMinCompressionPercentage();
         ErrorCalculationMethod method = inputManager.getMethod();
 
-        double minThreshold = getMinThresholdForMethod(method);
-        double maxThreshold = getMaxThresholdForMethod(method);
-        double range = maxThreshold - minThreshold;
-
-        double initialPercentageRange = 0.02;
-        double currentThreshold = minThreshold + (maxThreshold - minThreshold) * initialPercentageRange;
-        double currentCompressionPercentage = 0;
-        double previousThreshold = currentThreshold;
-
+        double minThreshold = ThresholdSearch.getMinThresholdForMethod(method);
+        double maxThreshold = ThresholdSearch.getMaxThresholdForMethod(method);
         int maxAttempts = inputManager.getMaxSearchAttempts();
-        boolean targetReached = false;
-
-        double bestCompressionPercentage = 0.0;
-        double bestThreshold = currentThreshold;
 
-        double bestTargetCompressionPercentage = Double.MAX_VALUE;
-        double bestTargetThreshold = 0;
+        // Build the tree once down to the minimum block size, then cut it at each candidate threshold
+        CompactQuadtree fullTree = cache.fullTree(inputManager.getSource(), inputManager.getMinimumBlockSize(), method, metrics);
+
+        String extension = inputManager.getImageOutputPath().substring(inputManager.getImageOutputPath().lastIndexOf('.') + 1).toLowerCase();
+        ThresholdSearch search = new ThresholdSearch(fullTree, extension, originalSize, targetCompressionPercentage);
+        search.setEncoder(encoder);
+        search.setMaxAttempts(maxAttempts);
+        search.setThreadCount(Runtime.getRuntime().availableProcessors());
+        search.setMetrics(metrics);
+        search.setListener(attempt -> {
+            System.out.printf("\nPercobaan %d / %d: Threshold = %.2f (%.1f%% dari maksimum)\n", attempt.number(), maxAttempts, attempt.threshold(), (attempt.threshold() / maxThreshold) * 100);
+            System.out.printf("Hasil: Kompresi %.2f%% (Target: %.2f%%)\n", attempt.compression() * 100, targetCompressionPercentage * 100);
+            System.out.printf("Waktu: %d ms (cut %d ms, render %d ms, encode %d ms)\n", attempt.totalMillis(), attempt.cutMillis(), attempt.renderMillis(), attempt.encodeMillis());
+        });
 
         System.out.println("Mencoba beberapa parameter kompresi...");
+        ThresholdSearch.Result result = search.search(minThreshold, maxThreshold);
 
-        for (int attempt = 0; attempt < maxAttempts; attempt++) {
-            if (attempt > 0) {
-                double increment;
-
-                if (range < 10) {
-                    increment = 1.3;
-                } else if (range < 1000) {
-                    increment = 1.6;
-                } else {
-                    increment = 2.0;
-                }
-
-                boolean isAboveTarget = currentCompressionPercentage >= targetCompressionPercentage;
-
-                if (!isAboveTarget) {
-                    double diff = targetCompressionPercentage - currentCompressionPercentage;
-                    if (diff > 0.3) {
-                        increment *= 2;
-                    } else if (diff < 0.1) {
-                        increment = 1.1;
-                    }
-                } else {
-                    double diff = currentCompressionPercentage - targetCompressionPercentage;
-                    if (diff > 0.3) {
-                        increment = 0.5;
-                    } else if (diff > 0.1) {
-                        increment = 0.7;
-                    } else {
-                        increment = 0.9;
-                    }
-                }
-
-                previousThreshold = currentThreshold;
-                currentThreshold = Math.min(currentThreshold * increment, maxThreshold);
-
-            }
-
-            System.out.printf("\nPercobaan %d / %d: Threshold = %.2f (%.1f%% dari maksimum)\n", attempt + 1, maxAttempts, currentThreshold, (currentThreshold / maxThreshold) * 100);
-
-            Quadtree test = new Quadtree(inputManager.getImage(), currentThreshold, inputManager.getMinimumBlockSize(), method);
-            test.build();
-
-            BufferedImage compressedImage = test.getCompressedImage();
-
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            String extension = inputManager.getImageOutputPath().substring(inputManager.getImageOutputPath().lastIndexOf('.') + 1).toLowerCase();
-
-            ImageIO.write(compressedImage, extension, outputStream);
-            long estimatedSize = outputStream.size();
-
-            currentCompressionPercentage = 1.0 - ((double)estimatedSize / originalSize);
-            System.out.printf("Hasil: Kompresi %.2f%% (Target: %.2f%%)\n", currentCompressionPercentage * 100, targetCompressionPercentage * 100);
-
-            if (currentCompressionPercentage > bestCompressionPercentage) {
-                bestCompressionPercentage = currentCompressionPercentage;
-                bestThreshold = currentThreshold;
-            }
-
-            if (currentCompressionPercentage >= targetCompressionPercentage) {
-                targetReached = true;
-                
-                if (currentCompressionPercentage < bestTargetCompressionPercentage) {
-                    bestTargetCompressionPercentage = currentCompressionPercentage;
-                    bestTargetThreshold = currentThreshold;
-                }
-            }
-
-            if (attempt > 0 && currentCompressionPercentage < bestCompressionPercentage * 0.08) {
-                currentThreshold = (previousThreshold + currentThreshold) / 2;
-            }
-        }
-
-        if (targetReached) {
+        if (result.targetReached()) {
             System.out.println("Berhasil menemukan parameter yang memenuhi target kompresi.");
-            inputManager.setErrorThreshold((float) bestTargetThreshold);
         } else {
-            System.out.printf("\nTidak dapat mencapai target kompresi %.2f%% dalam %d percobaan.\n", (targetCompressionPercentage * 100), maxAttempts);
-            System.out.printf("Kompresi yang dapat dicapai: %.2f%%\n", (bestCompressionPercentage * 100));
-            inputManager.setErrorThreshold((float) bestThreshold);
+            System.out.printf("\nTidak dapat mencapai target kompresi %.2f%% dalam %d percobaan.\n", (targetCompressionPercentage * 100), result.attempts().size());
+            System.out.printf("Kompresi yang dapat dicapai: %.2f%%\n", (result.compression() * 100));
         }
+        inputManager.setErrorThreshold((float) result.threshold());
 
         System.out.printf("Menggunakan parameter: Threshold = %.2f, Block Size = %d\n", inputManager.getErrorThreshold(), inputManager.getMinimumBlockSize());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,413 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+
+/**
+ * Non-interactive compression of every image in a directory or glob.
+ *
+ * <p>Images are processed concurrently on a fixed-size pool whose work queue is
+ * bounded, so listing a huge directory never queues more than a few images ahead
+ * of the workers. Each image is handled on a single thread; the parallelism comes
+ * from running several images at once. A summary CSV with per-phase timings and
+ * compression ratios is written once all images are done, optionally followed by
+ * a JSON report of each image's {@link CompressionMetrics}.
+ */
+public class BatchCompressor {
+    // Output format for inputs without --format whose own format cannot be written
+    private static final String FALLBACK_FORMAT = "png";
+    private static final String CSV_HEADER = "file,status,width,height,method,threshold,original_bytes,compressed_bytes,"
+            + "compression_percentage,compression_ratio,tree_depth,node_count,decode_ms,build_ms,render_ms,encode_ms,total_ms,error";
+
+    private record Job(Path input, Path output, String format) {
+    }
+
+    private static class Row {
+        Job job;
+        String status = "ok";
+        String error = "";
+        int width, height;
+        double threshold;
+        long originalSize, compressedSize;
+        int treeDepth, nodeCount;
+        long decodeMillis, buildMillis, renderMillis, encodeMillis, totalMillis;
+        CompressionMetrics metrics;
+    }
+
+    private final BatchOptions options;
+    // One encoder per output format, so concurrent images share their pools of writers
+    private final Map<String, ImageEncoder> encoders = new ConcurrentHashMap<>();
+
+    public BatchCompressor(BatchOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Compresses every matched image and writes the summary CSV.
+     *
+     * @return the number of images that failed
+     */
+    public int run() throws IOException {
+        List<Job> jobs = findJobs();
+        Files.createDirectories(options.getOutputDirectory());
+        System.out.println("Memproses " + jobs.size() + " gambar dengan " + options.getThreads() + " thread...");
+
+        int threads = options.getThreads();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Future<Row>> futures = new ArrayList<>();
+        try {
+            for (Job job : jobs) {
+                futures.add(pool.submit(() -> process(job)));
+            }
+
+            int failures = 0;
+            int done = 0;
+            List<Row> rows = new ArrayList<>();
+            for (Future<Row> future : futures) {
+                Row row = future.get();
+                rows.add(row);
+                done++;
+                if (!row.status.equals("ok")) {
+                    failures++;
+                }
+                System.out.printf("[%d/%d] %s: %s%n", done, jobs.size(), row.job.input(), row.status.equals("ok")
+                        ? String.format("%.2f%% dalam %d ms", percentage(row), row.totalMillis)
+                        : row.error);
+            }
+
+            writeSummary(rows);
+            if (options.getMetricsPath() != null) {
+                writeMetrics(rows);
+            }
+            return failures;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<Job> findJobs() throws IOException {
+        String input = options.getInput();
+        Path base;
+        PathMatcher matcher;
+
+        int globStart = indexOfGlob(input);
+        if (globStart < 0) {
+            base = Path.of(input);
+            if (!Files.isDirectory(base)) {
+                throw new IOException("Input is not a directory: " + input);
+            }
+            Set<String> suffixes = Arrays.stream(ImageIO.getReaderFileSuffixes())
+                    .map(suffix -> suffix.toLowerCase(Locale.ROOT))
+                    .collect(Collectors.toSet());
+            matcher = path -> suffixes.contains(extensionOf(path)) || RawImageReader.canRead(path);
+        } else {
+            int separator = input.lastIndexOf('/', globStart);
+            base = Path.of(separator < 0 ? "." : input.substring(0, separator + 1));
+            String pattern = input.substring(separator + 1);
+            PathMatcher glob = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            // Java's "**/" needs at least one directory, but a leading one should also match files in the base itself
+            PathMatcher topLevel = pattern.startsWith("**/")
+                    ? FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(3))
+                    : glob;
+            Path root = base;
+            matcher = path -> glob.matches(root.relativize(path)) || topLevel.matches(root.relativize(path));
+        }
+
+        Set<String> writable = Arrays.stream(ImageIO.getWriterFileSuffixes())
+                .map(suffix -> suffix.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        List<Job> jobs = new ArrayList<>();
+        try (Stream<Path> paths = globStart < 0 ? Files.list(base) : Files.walk(base)) {
+            for (Path path : (Iterable<Path>) paths.sorted()::iterator) {
+                if (!Files.isRegularFile(path) || !matcher.matches(path)) {
+                    continue;
+                }
+                String format = options.getFormat() != null ? options.getFormat() : extensionOf(path);
+                if (options.getFormat() == null && !writable.contains(format)) {
+                    // Raw inputs such as .ppm have no ImageIO writer
+                    format = FALLBACK_FORMAT;
+                }
+                Path relative = base.relativize(path);
+                String name = relative.toString();
+                int dot = name.lastIndexOf('.');
+                Path output = options.getOutputDirectory().resolve((dot > 0 ? name.substring(0, dot) : name) + "." + format);
+                jobs.add(new Job(path, output, format));
+            }
+        }
+        return resolveCollisions(jobs, base);
+    }
+
+    /**
+     * Keeps the source extension in the output name of inputs that would
+     * otherwise be written to the same file, such as {@code a.png} and
+     * {@code a.jpg} with {@code --format png}, which become {@code a.png.png}
+     * and {@code a.jpg.png}.
+     *
+     * @throws IOException if two outputs still collide
+     */
+    private List<Job> resolveCollisions(List<Job> jobs, Path base) throws IOException {
+        Map<Path, Long> counts = jobs.stream().collect(Collectors.groupingBy(Job::output, Collectors.counting()));
+        List<Job> resolved = new ArrayList<>(jobs.size());
+        Set<Path> outputs = new HashSet<>();
+        for (Job job : jobs) {
+            Job target = job;
+            if (counts.get(job.output()) > 1) {
+                Path output = options.getOutputDirectory().resolve(base.relativize(job.input()) + "." + job.format());
+                target = new Job(job.input(), output, job.format());
+            }
+            if (!outputs.add(target.output())) {
+                throw new IOException("Several inputs would be written to " + target.output());
+            }
+            resolved.add(target);
+        }
+        return resolved;
+    }
+
+    private Row process(Job job) {
+        Row row = new Row();
+        row.job = job;
+        if (options.getMetricsPath() != null) {
+            row.metrics = new CompressionMetrics();
+        }
+        long start = System.nanoTime();
+        try {
+            row.originalSize = Files.size(job.input());
+            Files.createDirectories(job.output().toAbsolutePath().getParent());
+            if (options.getTileSize() > 0) {
+                processTiled(job, row);
+            } else {
+                processWhole(job, row);
+            }
+            row.compressedSize = Files.size(job.output());
+        } catch (Exception | OutOfMemoryError e) {
+            row.status = "error";
+            row.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        row.totalMillis = millisSince(start);
+        return row;
+    }
+
+    private void processWhole(Job job, Row row) throws IOException {
+        long phase = System.nanoTime();
+        BufferedImage image;
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(row.metrics, CompressionMetrics.Phase.DECODE)) {
+            image = RawImageReader.canRead(job.input()) ? RawImageReader.read(job.input()) : ImageIO.read(job.input().toFile());
+        }
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        row.width = image.getWidth();
+        row.height = image.getHeight();
+        row.decodeMillis = millisSince(phase);
+
+        phase = System.nanoTime();
+        row.threshold = options.getThreshold();
+        boolean budgeted = options.getTargetCompression() > 0.0 && job.format().equals(QtcWriter.EXTENSION);
+        if (options.getTargetCompression() > 0.0 && !budgeted) {
+            ErrorCalculationMethod method = options.getMethod();
+            CompactQuadtree fullTree = new CompactQuadtree(image, 0.0, options.getMinimumBlockSize(), method);
+            fullTree.setMetrics(row.metrics);
+            fullTree.buildFull();
+            ThresholdSearch search = new ThresholdSearch(fullTree, job.format(), row.originalSize, options.getTargetCompression());
+            search.setEncoder(encoder(job.format()));
+            search.setMaxAttempts(options.getMaxSearchAttempts());
+            search.setMetrics(row.metrics);
+            row.threshold = search.search(ThresholdSearch.getMinThresholdForMethod(method), ThresholdSearch.getMaxThresholdForMethod(method)).threshold();
+        }
+        Quadtree quadtree = new Quadtree(image, row.threshold, options.getMinimumBlockSize(), options.getMethod());
+        quadtree.setMetrics(row.metrics);
+        if (budgeted) {
+            // The .qtc size follows from the node count, so the target is met by one best-first build
+            // that ignores the threshold
+            row.threshold = Double.NaN;
+            quadtree.buildBestFirst(Integer.MAX_VALUE, (long) (row.originalSize * (1 - options.getTargetCompression())), Double.MIN_VALUE);
+        } else {
+            quadtree.build();
+        }
+        row.buildMillis = millisSince(phase);
+        row.treeDepth = quadtree.getTreeDepth();
+        row.nodeCount = quadtree.getNodeCount();
+
+        if (job.format().equals(QtcWriter.EXTENSION)) {
+            phase = System.nanoTime();
+            try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(row.metrics, CompressionMetrics.Phase.ENCODE);
+                    OutputStream out = Files.newOutputStream(job.output())) {
+                QtcWriter.write(quadtree, out);
+            }
+            row.encodeMillis = millisSince(phase);
+        } else if (job.format().equals(ProgressiveWriter.EXTENSION)) {
+            phase = System.nanoTime();
+            try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(row.metrics, CompressionMetrics.Phase.ENCODE);
+                    OutputStream out = Files.newOutputStream(job.output())) {
+                ProgressiveWriter.write(quadtree, out);
+            }
+            row.encodeMillis = millisSince(phase);
+        } else {
+            phase = System.nanoTime();
+            BufferedImage compressed = quadtree.getCompressedImage();
+            row.renderMillis = millisSince(phase);
+
+            phase = System.nanoTime();
+            try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(row.metrics, CompressionMetrics.Phase.ENCODE)) {
+                encoder(job.format()).write(compressed, job.output());
+            }
+            row.encodeMillis = millisSince(phase);
+        }
+    }
+
+    private void processTiled(Job job, Row row) throws IOException {
+        long phase = System.nanoTime();
+        row.threshold = options.getThreshold();
+        TiledCompressor compressor = new TiledCompressor(row.threshold, options.getMinimumBlockSize(), options.getMethod());
+        compressor.setTileSize(options.getTileSize());
+        compressor.setMetrics(row.metrics);
+        try (OutputStream out = Files.newOutputStream(job.output())) {
+            compressor.compress(job.input().toFile(), out);
+        }
+        // Decoding, building and encoding are interleaved tile by tile, so only the total is known
+        row.buildMillis = millisSince(phase);
+    }
+
+    private void writeSummary(List<Row> rows) throws IOException {
+        Path summary = options.getSummaryPath();
+        if (summary.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(summary.toAbsolutePath().getParent());
+        }
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(summary))) {
+            writer.println(CSV_HEADER);
+            for (Row row : rows) {
+                writer.println(String.join(",",
+                        csv(row.job.input().toString()),
+                        row.status,
+                        Integer.toString(row.width),
+                        Integer.toString(row.height),
+                        options.getMethod().name(),
+                        // Budgeted builds have no threshold
+                        Double.isNaN(row.threshold) ? "" : format(row.threshold),
+                        Long.toString(row.originalSize),
+                        Long.toString(row.compressedSize),
+                        format(percentage(row)),
+                        format(row.compressedSize > 0 ? (double) row.originalSize / row.compressedSize : 0.0),
+                        Integer.toString(row.treeDepth),
+                        Integer.toString(row.nodeCount),
+                        Long.toString(row.decodeMillis),
+                        Long.toString(row.buildMillis),
+                        Long.toString(row.renderMillis),
+                        Long.toString(row.encodeMillis),
+                        Long.toString(row.totalMillis),
+                        csv(row.error)));
+            }
+        }
+        System.out.println("Ringkasan disimpan di " + summary);
+    }
+
+    private void writeMetrics(List<Row> rows) throws IOException {
+        Path report = options.getMetricsPath();
+        if (report.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(report.toAbsolutePath().getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(report)) {
+            writer.write("{\"files\": [");
+            for (int i = 0; i < rows.size(); i++) {
+                Row row = rows.get(i);
+                writer.write(i > 0 ? ",\n" : "\n");
+                writer.write("{\"file\": " + json(row.job.input().toString()) + ", \"status\": " + json(row.status) + ", \"metrics\": ");
+                row.metrics.writeJson(writer);
+                writer.write("}");
+            }
+            writer.write("\n]}\n");
+        }
+        System.out.println("Metrik disimpan di " + report);
+    }
+
+    private static double percentage(Row row) {
+        return row.originalSize > 0 ? (1 - ((double) row.compressedSize / row.originalSize)) * 100 : 0.0;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String json(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static int indexOfGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private ImageEncoder encoder(String format) {
+        return encoders.computeIfAbsent(format, name -> {
+            ImageEncoder encoder = new ImageEncoder(name);
+            if (!Float.isNaN(options.getQuality())) {
+                encoder.setCompressionQuality(options.getQuality());
+            }
+            return encoder;
+        });
+    }
+
+    private static String extensionOf(Path path) {
+        String name = path.getFileName().toString();
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,204 @@
+package quadtreecompression;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Command-line options for {@link BatchCompressor}.
+ */
+public class BatchOptions {
+    public static final String USAGE = String.join("\n",
+            "Usage: java Main --input <dir|glob> --output <dir> --method <method> --min-block <n>",
+            "                 (--threshold <value> | --target <0.0-1.0>) [options]",
+            "",
+            "  --input <dir|glob>    directory of images, or a glob such as 'photos/**/*.png'",
+            "                        (a leading **/ also matches files directly in the directory)",
+            "  --output <dir>        directory for the compressed images",
+            "  --method <method>     variance, mad, mpd, entropy or ssim",
+            "  --threshold <value>   fixed error threshold",
+            "  --target <fraction>   minimum compression to search for, e.g. 0.6",
+            "  --min-block <n>       minimum block area",
+            "  --attempts <n>        search attempts per image with --target (default 10)",
+            "  --format <ext>        output format, e.g. png, jpg, qtc or qtp (default: input format, png for raw input)",
+            "  --quality <fraction>  PNG or JPEG compression quality, 0.0-1.0 (default: writer default)",
+            "  --tile <size>         compress tile by tile into a tiled .qtc file",
+            "  --threads <n>         images processed concurrently (default: processor count)",
+            "  --summary <file>      summary CSV path (default: <output>/summary.csv)",
+            "  --metrics <file>      also write per-image work counters and phase times as JSON");
+
+    private String input;
+    private Path outputDirectory;
+    private ErrorCalculationMethod method;
+    private double threshold = Double.NaN;
+    private double targetCompression = 0.0;
+    private int minimumBlockSize = 0;
+    private int maxSearchAttempts = 10;
+    private String format;
+    private float quality = Float.NaN;
+    private int tileSize = 0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Path summaryPath;
+    private Path metricsPath;
+
+    public static BatchOptions parse(String[] args) {
+        BatchOptions options = new BatchOptions();
+        for (int i = 0; i < args.length; i++) {
+            String flag = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + flag);
+            }
+            String value = args[++i];
+            switch (flag) {
+                case "--input" -> options.input = value;
+                case "--output" -> options.outputDirectory = Path.of(value);
+                case "--method" -> options.method = parseMethod(value);
+                case "--threshold" -> options.threshold = parseDouble(flag, value);
+                case "--target" -> options.targetCompression = parseDouble(flag, value);
+                case "--min-block" -> options.minimumBlockSize = parseInt(flag, value);
+                case "--attempts" -> options.maxSearchAttempts = parseInt(flag, value);
+                case "--format" -> options.format = value.toLowerCase(Locale.ROOT);
+                case "--quality" -> options.quality = (float) parseDouble(flag, value);
+                case "--tile" -> options.tileSize = parseInt(flag, value);
+                case "--threads" -> options.threads = parseInt(flag, value);
+                case "--summary" -> options.summaryPath = Path.of(value);
+                case "--metrics" -> options.metricsPath = Path.of(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + flag);
+            }
+        }
+        options.validate();
+        return options;
+    }
+
+    private void validate() {
+        if (input == null || outputDirectory == null || method == null) {
+            throw new IllegalArgumentException("--input, --output and --method are required");
+        }
+        if (minimumBlockSize < 1) {
+            throw new IllegalArgumentException("--min-block must be at least 1");
+        }
+        boolean hasThreshold = !Double.isNaN(threshold);
+        boolean hasTarget = targetCompression > 0.0;
+        if (hasThreshold == hasTarget) {
+            throw new IllegalArgumentException("Specify exactly one of --threshold or --target");
+        }
+        if (hasThreshold && threshold < 0.0) {
+            throw new IllegalArgumentException("--threshold must not be negative");
+        }
+        if (hasTarget && targetCompression > 1.0) {
+            throw new IllegalArgumentException("--target must be between 0.0 and 1.0");
+        }
+        if (!Float.isNaN(quality) && !(quality >= 0.0f && quality <= 1.0f)) {
+            throw new IllegalArgumentException("--quality must be between 0.0 and 1.0");
+        }
+        if (maxSearchAttempts < 1 || threads < 1 || tileSize < 0) {
+            throw new IllegalArgumentException("--attempts and --threads must be at least 1, --tile must not be negative");
+        }
+        if (tileSize > 0 && hasTarget) {
+            throw new IllegalArgumentException("--tile cannot be combined with --target");
+        }
+        if (tileSize > 0) {
+            format = QtcWriter.EXTENSION;
+        }
+        if (summaryPath == null) {
+            summaryPath = outputDirectory.resolve("summary.csv");
+        }
+    }
+
+    static ErrorCalculationMethod parseMethod(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "variance" -> {
+                return ErrorCalculationMethod.VARIANCE;
+            }
+            case "mad" -> {
+                return ErrorCalculationMethod.MAD;
+            }
+            case "mpd", "max_pixel_difference" -> {
+                return ErrorCalculationMethod.MAX_PIXEL_DIFFERENCE;
+            }
+            case "entropy" -> {
+                return ErrorCalculationMethod.ENTROPY;
+            }
+            case "ssim" -> {
+                return ErrorCalculationMethod.SSIM;
+            }
+            default -> throw new IllegalArgumentException("Unknown method: " + value);
+        }
+    }
+
+    static double parseDouble(String flag, String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(flag + " expects a number, got: " + value);
+        }
+    }
+
+    static int parseInt(String flag, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(flag + " expects an integer, got: " + value);
+        }
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public ErrorCalculationMethod getMethod() {
+        return method;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public double getTargetCompression() {
+        return targetCompression;
+    }
+
+    public int getMinimumBlockSize() {
+        return minimumBlockSize;
+    }
+
+    public int getMaxSearchAttempts() {
+        return maxSearchAttempts;
+    }
+
+    /**
+     * Returns the output format, or {@code null} to keep each input's own format.
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the compression quality for image formats, or {@code NaN} to keep the writer's default.
+     */
+    public float getQuality() {
+        return quality;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public Path getSummaryPath() {
+        return summaryPath;
+    }
+
+    /**
+     * Returns where to write the JSON metrics report, or {@code null} if none was requested.
+     */
+    public Path getMetricsPath() {
+        return metricsPath;
+    }
+}
@@ -0,0 +1,144 @@
+package quadtreecompression;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Marks which parts of an image changed, between two frames or through an
+ * edit, on a grid of {@value #CELL_SIZE} × {@value #CELL_SIZE} pixel cells.
+ *
+ * <p>Rows are compared with {@link Arrays#mismatch}, which skips identical runs
+ * with wide vector compares, so an unchanged row costs three calls no matter how
+ * wide it is. The marked cells are summed into a summed-area table, which lets
+ * {@link #intersects} decide in constant time whether any cell under a block
+ * changed. The answer is conservative: a block that shares a cell with a change
+ * counts as changed even if none of its own pixels did. Blocks outside the
+ * bounding box of the change are ruled out exactly.
+ */
+class ChangeMask {
+    static final int CELL_SIZE = 8;
+
+    private final int columns;
+    private final int rows;
+    private final int[] changedCells;
+    private final int changedCount;
+    // Bounding box of the change in pixels, right and bottom exclusive
+    private int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right, bottom;
+
+    private ChangeMask(int width, int height, boolean[] changed) {
+        this.columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        this.rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        this.changedCells = new int[(columns + 1) * (rows + 1)];
+        int count = 0;
+        for (int j = 0; j < rows; j++) {
+            int rowSum = 0;
+            for (int i = 0; i < columns; i++) {
+                if (changed[j * columns + i]) {
+                    rowSum++;
+                    count++;
+                    left = Math.min(left, i * CELL_SIZE);
+                    top = Math.min(top, j * CELL_SIZE);
+                    right = Math.max(right, Math.min(width, (i + 1) * CELL_SIZE));
+                    bottom = Math.max(bottom, Math.min(height, (j + 1) * CELL_SIZE));
+                }
+                changedCells[(j + 1) * (columns + 1) + i + 1] = changedCells[j * (columns + 1) + i + 1] + rowSum;
+            }
+        }
+        this.changedCount = count;
+    }
+
+    /**
+     * Marks a single edited rectangle of a width × height image, which must lie
+     * inside the image.
+     */
+    static ChangeMask covering(int width, int height, int x, int y, int regionWidth, int regionHeight) {
+        int columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        int rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        boolean[] changed = new boolean[columns * rows];
+        if (regionWidth > 0 && regionHeight > 0) {
+            for (int j = y / CELL_SIZE; j <= (y + regionHeight - 1) / CELL_SIZE; j++) {
+                Arrays.fill(changed, j * columns + x / CELL_SIZE, j * columns + (x + regionWidth - 1) / CELL_SIZE + 1, true);
+            }
+        }
+        ChangeMask mask = new ChangeMask(width, height, changed);
+        if (!mask.isEmpty()) {
+            mask.left = x;
+            mask.top = y;
+            mask.right = x + regionWidth;
+            mask.bottom = y + regionHeight;
+        }
+        return mask;
+    }
+
+    /**
+     * Compares two frames of the same size pixel by pixel.
+     */
+    static ChangeMask between(PixelBuffer previous, PixelBuffer current) {
+        int width = current.getWidth();
+        int height = current.getHeight();
+        if (previous.getWidth() != width || previous.getHeight() != height) {
+            throw new IllegalArgumentException("Frames must have the same size");
+        }
+
+        int columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        boolean[] changed = new boolean[columns * ((height + CELL_SIZE - 1) / CELL_SIZE)];
+        for (int j = 0; j < height; j++) {
+            int rowStart = j * width;
+            int cellRow = (j / CELL_SIZE) * columns;
+            markRow(previous.redPlane(), current.redPlane(), rowStart, width, changed, cellRow);
+            markRow(previous.greenPlane(), current.greenPlane(), rowStart, width, changed, cellRow);
+            markRow(previous.bluePlane(), current.bluePlane(), rowStart, width, changed, cellRow);
+        }
+        return new ChangeMask(width, height, changed);
+    }
+
+    private static void markRow(byte[] previous, byte[] current, int rowStart, int width, boolean[] changed, int cellRow) {
+        int rowEnd = rowStart + width;
+        int from = rowStart;
+        while (from < rowEnd) {
+            int offset = Arrays.mismatch(previous, from, rowEnd, current, from, rowEnd);
+            if (offset < 0) {
+                return;
+            }
+            // The rest of this cell is already known to have changed, so resume at the next one
+            int cell = (from + offset - rowStart) / CELL_SIZE;
+            changed[cellRow + cell] = true;
+            from = rowStart + (cell + 1) * CELL_SIZE;
+        }
+    }
+
+    boolean isEmpty() {
+        return changedCount == 0;
+    }
+
+    /**
+     * Returns the bounding box of the changed cells, empty if nothing changed.
+     */
+    Rectangle bounds() {
+        return changedCount == 0 ? new Rectangle() : new Rectangle(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Returns the fraction of cells that changed, between 0.0 and 1.0.
+     */
+    double changedFraction() {
+        return columns * rows == 0 ? 0.0 : (double) changedCount / (columns * rows);
+    }
+
+    /**
+     * Returns whether any changed cell overlaps the block.
+     */
+    boolean intersects(int x, int y, int width, int height) {
+        if (changedCount == 0 || x >= right || y >= bottom || x + width <= left || y + height <= top) {
+            return false;
+        }
+        int firstColumn = x / CELL_SIZE;
+        int firstRow = y / CELL_SIZE;
+        int lastColumn = (x + width - 1) / CELL_SIZE + 1;
+        int lastRow = (y + height - 1) / CELL_SIZE + 1;
+        int stride = columns + 1;
+        int sum = changedCells[lastRow * stride + lastColumn] - changedCells[firstRow * stride + lastColumn]
+                - changedCells[lastRow * stride + firstColumn] + changedCells[firstRow * stride + firstColumn];
+        return sum > 0;
+    }
+}
@@ -0,0 +1,36 @@
+package quadtreecompression;
+
+/**
+ * Row kernels over one planar 8-bit channel, with a Vector API implementation
+ * used when the {@code jdk.incubator.vector} module is present and a scalar one
+ * otherwise.
+ *
+ * <p>The vector implementation is picked at startup if the JVM was launched with
+ * {@code --add-modules jdk.incubator.vector}, the preferred integer vector is at
+ * least 256 bits wide, and {@code -Dquadtree.vector=false} was not given. Both
+ * implementations return identical results.
+ */
+interface ChannelKernels {
+    ChannelKernels INSTANCE = select();
+
+    /**
+     * Returns the sum of {@code |plane[i] - average|} over {@code from <= i < to},
+     * treating the plane's bytes as unsigned.
+     */
+    long sumAbsoluteDeviation(byte[] plane, int from, int to, int average);
+
+    /**
+     * Returns whether the Vector API implementation is in use.
+     */
+    boolean isVectorized();
+
+    private static ChannelKernels select() {
+        boolean enabled = Boolean.parseBoolean(System.getProperty("quadtree.vector", "true"));
+        boolean available = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        // The vector class is only loaded once the module is known to be there
+        if (enabled && available && VectorChannelKernels.isSupported()) {
+            return new VectorChannelKernels();
+        }
+        return new ScalarChannelKernels();
+    }
+}
@@ -0,0 +1,450 @@
+package quadtreecompression;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Quadtree stored as parallel primitive arrays instead of {@code Node} objects.
+ *
+ * <p>A block is only split when both of its sides are at least two pixels, so a
+ * split node always has exactly four children. They are allocated next to each
+ * other (top-left, top-right, bottom-left, bottom-right), which means a node only
+ * needs the index of its first child. Block geometry is not stored at all: it is
+ * recomputed from the parent block while descending. Each node therefore costs
+ * two ints (child link and packed RGB) instead of a full object graph.
+ *
+ * <p>{@link #buildFull()} instead grows the tree all the way down to the minimum
+ * block size and records the error and average color of every node. Since the
+ * split decision of a node depends only on its own error, the tree for any
+ * threshold is then a prefix of the full tree and {@link #cutAt(double)} can
+ * derive it without touching a single pixel.
+ */
+public class CompactQuadtree implements CompressedTree {
+    private static final int LEAF = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final BufferedImage image;
+    private final double errorThreshold;
+    private final int minBlockSize;
+    private final ErrorCalculationMethod method;
+    private ErrorCalculator calculator;
+    private CompressionMetrics metrics;
+
+    private int[] firstChild;
+    private int[] color;
+    private double[] error;
+    private boolean full;
+    private int nodeCount;
+    private int treeDepth;
+    private int parallelism = 1;
+    private int sequentialCutoff = Quadtree.DEFAULT_SEQUENTIAL_CUTOFF;
+
+    private class RenderTask extends RecursiveAction {
+        private final int index, x, y, width, height;
+        private final double threshold;
+        private final int[] pixels;
+
+        RenderTask(int index, int x, int y, int width, int height, double threshold, int[] pixels) {
+            this.index = index;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.threshold = threshold;
+            this.pixels = pixels;
+        }
+
+        @Override
+        protected void compute() {
+            if (isLeaf(index, threshold) || width * height <= sequentialCutoff) {
+                drawTree(index, x, y, width, height, threshold, pixels);
+                return;
+            }
+
+            // Sibling subtrees cover disjoint blocks, so they write disjoint parts of the array
+            int child = firstChild[index];
+            int halfWidth = width / 2;
+            int halfHeight = height / 2;
+            invokeAll(new RenderTask(child, x, y, halfWidth, halfHeight, threshold, pixels),
+                    new RenderTask(child + 1, x + halfWidth, y, width - halfWidth, halfHeight, threshold, pixels),
+                    new RenderTask(child + 2, x, y + halfHeight, halfWidth, height - halfHeight, threshold, pixels),
+                    new RenderTask(child + 3, x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight, threshold, pixels));
+        }
+    }
+
+    public CompactQuadtree(BufferedImage image, double errorThreshold, int minBlockSize, ErrorCalculationMethod method) {
+        this.image = image;
+        this.errorThreshold = errorThreshold;
+        this.minBlockSize = minBlockSize;
+        this.method = method;
+    }
+
+    /**
+     * Creates a tree that evaluates blocks with an existing, possibly shared, calculator.
+     */
+    CompactQuadtree(BufferedImage image, double errorThreshold, int minBlockSize, ErrorCalculator calculator) {
+        this(image, errorThreshold, minBlockSize, calculator.getMethod());
+        this.calculator = calculator;
+    }
+
+    /**
+     * Returns roughly how much memory the node arrays take.
+     */
+    long sizeInBytes() {
+        long perNode = Integer.BYTES * 2 + (error != null ? Double.BYTES : 0);
+        return perNode * firstChild.length;
+    }
+
+    /**
+     * Sets how many worker threads {@link #getCompressedImage()} may use, both for
+     * this tree and for the trees returned by {@link #cutAt(double)}.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the block area at or below which a parallel render handles the
+     * remaining subtree sequentially.
+     */
+    public void setSequentialCutoff(int blockArea) {
+        if (blockArea < 1) {
+            throw new IllegalArgumentException("Sequential cutoff must be at least 1");
+        }
+        this.sequentialCutoff = blockArea;
+    }
+
+    /**
+     * Collects pixel reads, error evaluations, nodes per depth and build and
+     * render times into the given metrics. Renders of trees returned by
+     * {@link #cutAt(double)} are not counted as a render phase; the threshold
+     * search reports them per attempt instead. Must be set before building.
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void build() {
+        build(false);
+    }
+
+    /**
+     * Builds the tree down to the minimum block size regardless of the error
+     * threshold, keeping every node's error so that {@link #cutAt(double)} can
+     * later produce the tree for any threshold.
+     */
+    public void buildFull() {
+        build(true);
+    }
+
+    private void build(boolean full) {
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.BUILD)) {
+            if (calculator == null) {
+                calculator = new ErrorCalculator(PixelBuffer.fromImage(image), method, metrics);
+            } else {
+                calculator = calculator.withMetrics(metrics);
+            }
+            this.full = full;
+            firstChild = new int[INITIAL_CAPACITY];
+            color = new int[INITIAL_CAPACITY];
+            error = full ? new double[INITIAL_CAPACITY] : null;
+            nodeCount = 1;
+            treeDepth = 0;
+            buildTree(0, 0, 0, image.getWidth(), image.getHeight(), 0);
+
+            firstChild = Arrays.copyOf(firstChild, nodeCount);
+            color = Arrays.copyOf(color, nodeCount);
+            if (full) {
+                error = Arrays.copyOf(error, nodeCount);
+            }
+        }
+    }
+
+    private void buildTree(int index, int x, int y, int width, int height, int depth) {
+        double nodeError = calculator.calculateError(x, y, width, height);
+        treeDepth = Math.max(treeDepth, depth);
+
+        boolean leaf = (!full && nodeError < errorThreshold) || width * height <= minBlockSize || width <= 1 || height <= 1;
+        if (full) {
+            error[index] = nodeError;
+        }
+        if (full || leaf) {
+            color[index] = calculator.calculateAverageColor(x, y, width, height);
+        }
+        if (metrics != null) {
+            metrics.recordNode(depth, leaf);
+        }
+        if (leaf) {
+            firstChild[index] = LEAF;
+            return;
+        }
+
+        int child = allocateChildren();
+        firstChild[index] = child;
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        buildTree(child, x, y, halfWidth, halfHeight, depth + 1);
+        buildTree(child + 1, x + halfWidth, y, width - halfWidth, halfHeight, depth + 1);
+        buildTree(child + 2, x, y + halfHeight, halfWidth, height - halfHeight, depth + 1);
+        buildTree(child + 3, x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight, depth + 1);
+    }
+
+    private int allocateChildren() {
+        int index = nodeCount;
+        nodeCount += 4;
+        if (nodeCount > firstChild.length) {
+            int capacity = Math.max(nodeCount, firstChild.length * 2);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            color = Arrays.copyOf(color, capacity);
+            if (full) {
+                error = Arrays.copyOf(error, capacity);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the tree that {@link #build()} would produce for the given threshold.
+     * The result shares this tree's arrays and only visits the nodes it keeps.
+     */
+    public CompressedTree cutAt(double threshold) {
+        if (!full) {
+            throw new IllegalStateException("cutAt requires a tree built with buildFull()");
+        }
+        return new Cut(threshold);
+    }
+
+    private boolean isLeaf(int index, double threshold) {
+        return firstChild[index] == LEAF || (full && error[index] < threshold);
+    }
+
+    private class Cut implements CompressedTree {
+        private final double threshold;
+        private int nodeCount;
+        private int treeDepth;
+
+        Cut(double threshold) {
+            this.threshold = threshold;
+            countNodes(0, 0);
+        }
+
+        private void countNodes(int index, int depth) {
+            nodeCount++;
+            treeDepth = Math.max(treeDepth, depth);
+            if (!isLeaf(index, threshold)) {
+                int child = firstChild[index];
+                for (int i = 0; i < 4; i++) {
+                    countNodes(child + i, depth + 1);
+                }
+            }
+        }
+
+        public int getWidth() {
+            return image.getWidth();
+        }
+
+        public int getHeight() {
+            return image.getHeight();
+        }
+
+        public int getTreeDepth() {
+            return treeDepth;
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public BufferedImage getCompressedImage() {
+            return CompactQuadtree.this.render(threshold);
+        }
+
+        public void traverse(TreeVisitor visitor) {
+            CompactQuadtree.this.traverse(0, 0, 0, image.getWidth(), image.getHeight(), threshold, visitor);
+        }
+
+        public int getColorAt(int x, int y) {
+            return colorAt(x, y, threshold);
+        }
+
+        public void traverse(Rectangle area, TreeVisitor visitor) {
+            CompactQuadtree.this.traverse(0, 0, 0, image.getWidth(), image.getHeight(), threshold, area, visitor);
+        }
+
+        public BufferedImage render(Rectangle area, int outputWidth, int outputHeight) {
+            Viewport viewport = new Viewport(image.getWidth(), image.getHeight(), area, outputWidth, outputHeight);
+            drawTree(0, 0, 0, image.getWidth(), image.getHeight(), threshold, viewport);
+            return viewport.getImage();
+        }
+    }
+
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    public int getTreeDepth() {
+        return treeDepth;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public BufferedImage getCompressedImage() {
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.RENDER)) {
+            return render(Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    private BufferedImage render(double threshold) {
+        BufferedImage output = RasterFill.newImage(image.getWidth(), image.getHeight());
+        int[] pixels = RasterFill.pixels(output);
+        if (parallelism > 1) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new RenderTask(0, 0, 0, image.getWidth(), image.getHeight(), threshold, pixels));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            drawTree(0, 0, 0, image.getWidth(), image.getHeight(), threshold, pixels);
+        }
+        return output;
+    }
+
+    private void drawTree(int index, int x, int y, int width, int height, double threshold, int[] pixels) {
+        if (isLeaf(index, threshold)) {
+            RasterFill.fill(pixels, image.getWidth(), x, y, width, height, color[index]);
+            return;
+        }
+
+        int child = firstChild[index];
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        drawTree(child, x, y, halfWidth, halfHeight, threshold, pixels);
+        drawTree(child + 1, x + halfWidth, y, width - halfWidth, halfHeight, threshold, pixels);
+        drawTree(child + 2, x, y + halfHeight, halfWidth, height - halfHeight, threshold, pixels);
+        drawTree(child + 3, x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight, threshold, pixels);
+    }
+
+    public void traverse(TreeVisitor visitor) {
+        traverse(0, 0, 0, image.getWidth(), image.getHeight(), Double.NEGATIVE_INFINITY, visitor);
+    }
+
+    private void traverse(int index, int x, int y, int width, int height, double threshold, TreeVisitor visitor) {
+        if (isLeaf(index, threshold)) {
+            visitor.visitLeaf(x, y, width, height, color[index]);
+            return;
+        }
+
+        visitor.visitSplit(x, y, width, height);
+        int child = firstChild[index];
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        traverse(child, x, y, halfWidth, halfHeight, threshold, visitor);
+        traverse(child + 1, x + halfWidth, y, width - halfWidth, halfHeight, threshold, visitor);
+        traverse(child + 2, x, y + halfHeight, halfWidth, height - halfHeight, threshold, visitor);
+        traverse(child + 3, x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight, threshold, visitor);
+    }
+
+    public int getColorAt(int x, int y) {
+        return colorAt(x, y, Double.NEGATIVE_INFINITY);
+    }
+
+    private int colorAt(int x, int y, double threshold) {
+        if (x < 0 || y < 0 || x >= image.getWidth() || y >= image.getHeight()) {
+            throw new IllegalArgumentException("The pixel lies outside the image");
+        }
+        requireBuilt();
+        int index = 0;
+        int left = 0, top = 0, width = image.getWidth(), height = image.getHeight();
+        while (!isLeaf(index, threshold)) {
+            int halfWidth = width / 2;
+            int halfHeight = height / 2;
+            int quadrant = 0;
+            if (x >= left + halfWidth) {
+                quadrant += 1;
+                left += halfWidth;
+                width -= halfWidth;
+            } else {
+                width = halfWidth;
+            }
+            if (y >= top + halfHeight) {
+                quadrant += 2;
+                top += halfHeight;
+                height -= halfHeight;
+            } else {
+                height = halfHeight;
+            }
+            index = firstChild[index] + quadrant;
+        }
+        return color[index];
+    }
+
+    public void traverse(Rectangle area, TreeVisitor visitor) {
+        requireBuilt();
+        traverse(0, 0, 0, image.getWidth(), image.getHeight(), Double.NEGATIVE_INFINITY, area, visitor);
+    }
+
+    private void traverse(int index, int x, int y, int width, int height, double threshold, Rectangle area, TreeVisitor visitor) {
+        if (!area.intersects(x, y, width, height)) {
+            return;
+        }
+        if (isLeaf(index, threshold)) {
+            visitor.visitLeaf(x, y, width, height, color[index]);
+            return;
+        }
+
+        visitor.visitSplit(x, y, width, height);
+        int child = firstChild[index];
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        traverse(child, x, y, halfWidth, halfHeight, threshold, area, visitor);
+        traverse(child + 1, x + halfWidth, y, width - halfWidth, halfHeight, threshold, area, visitor);
+        traverse(child + 2, x, y + halfHeight, halfWidth, height - halfHeight, threshold, area, visitor);
+        traverse(child + 3, x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight, threshold, area, visitor);
+    }
+
+    public BufferedImage render(Rectangle area, int outputWidth, int outputHeight) {
+        Viewport viewport = new Viewport(image.getWidth(), image.getHeight(), area, outputWidth, outputHeight);
+        requireBuilt();
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.RENDER)) {
+            drawTree(0, 0, 0, image.getWidth(), image.getHeight(), Double.NEGATIVE_INFINITY, viewport);
+        }
+        return viewport.getImage();
+    }
+
+    private void drawTree(int index, int x, int y, int width, int height, double threshold, Viewport viewport) {
+        if (!viewport.samples(x, y, width, height)) {
+            return;
+        }
+        if (isLeaf(index, threshold)) {
+            viewport.fill(x, y, width, height, color[index]);
+            return;
+        }
+
+        int child = firstChild[index];
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        drawTree(child, x, y, halfWidth, halfHeight, threshold, viewport);
+        drawTree(child + 1, x + halfWidth, y, width - halfWidth, halfHeight, threshold, viewport);
+        drawTree(child + 2, x, y + halfHeight, halfWidth, height - halfHeight, threshold, viewport);
+        drawTree(child + 3, x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight, threshold, viewport);
+    }
+
+    private void requireBuilt() {
+        if (firstChild == null) {
+            throw new IllegalStateException("The tree has not been built");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package quadtreecompression;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Read-only view of a built compression tree, independent of how its nodes
+ * are stored.
+ *
+ * <p>Besides rendering the whole image, a tree answers queries by descending
+ * from the root, so reading a pixel or a small region costs time proportional
+ * to the depth of the tree and the size of the answer, not to the image size.
+ */
+public interface CompressedTree {
+    int getWidth();
+
+    int getHeight();
+
+    int getTreeDepth();
+
+    int getNodeCount();
+
+    BufferedImage getCompressedImage();
+
+    void traverse(TreeVisitor visitor);
+
+    /**
+     * Returns the color of the leaf that covers the pixel.
+     *
+     * @throws IllegalArgumentException if the pixel lies outside the image
+     */
+    int getColorAt(int x, int y);
+
+    /**
+     * Visits in pre-order only the nodes whose block intersects {@code area}.
+     * The leaves reported are exactly those that overlap it, with their full
+     * blocks rather than the overlapping part.
+     */
+    void traverse(Rectangle area, TreeVisitor visitor);
+
+    /**
+     * Renders {@code area} of the compressed image at full resolution into an
+     * image of the same size as the area.
+     */
+    default BufferedImage render(Rectangle area) {
+        return render(area, area.width, area.height);
+    }
+
+    /**
+     * Renders {@code area} of the compressed image scaled to
+     * {@code outputWidth} × {@code outputHeight} with nearest-neighbor sampling,
+     * visiting only the nodes the output resolution can show.
+     *
+     * @throws IllegalArgumentException if the area is empty or not inside the image
+     */
+    BufferedImage render(Rectangle area, int outputWidth, int outputHeight);
+}
@@ -0,0 +1,225 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+
+/**
+ * In-process cache of decoded images, per-image error indices and fully built
+ * trees, so that compressing the same input again with another threshold, or
+ * another method, skips the work that does not depend on it.
+ *
+ * <p>Images are identified by the SHA-256 hash of their encoded bytes. Indices
+ * are keyed by hash and method, and full trees (see {@link CompactQuadtree#buildFull()})
+ * by hash, method and minimum block size, since any threshold can be cut from
+ * them. Entries are weighed by their approximate memory footprint and the least
+ * recently used ones are evicted once the total exceeds the configured size.
+ *
+ * <p>Cached objects are shared between callers and must not be modified. The
+ * cache is safe for concurrent use; two threads missing on the same key at
+ * the same time may both compute it.
+ */
+public class CompressionCache {
+    public enum Kind {
+        IMAGE, INDEX, TREE
+    }
+
+    /**
+     * A decoded image together with the hash that identifies it in the cache.
+     */
+    public record Source(String hash, BufferedImage image, long encodedSize) {
+    }
+
+    private record Key(Kind kind, String hash, ErrorCalculationMethod method, int minBlockSize) {
+    }
+
+    private record Entry(Object value, long bytes) {
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private final Map<Kind, LongAdder> hits = new EnumMap<>(Kind.class);
+    private final Map<Kind, LongAdder> misses = new EnumMap<>(Kind.class);
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes approximate memory the cached entries may take together
+     */
+    public CompressionCache(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1 byte");
+        }
+        this.maxBytes = maxBytes;
+        for (Kind kind : Kind.values()) {
+            hits.put(kind, new LongAdder());
+            misses.put(kind, new LongAdder());
+        }
+    }
+
+    /**
+     * Loads an image file. Raw formats handled by {@link RawImageReader} are
+     * hashed and read through a memory mapping instead of being copied onto the heap.
+     */
+    public Source load(Path file) throws IOException {
+        if (!RawImageReader.canRead(file)) {
+            return load(Files.readAllBytes(file));
+        }
+
+        // Wrapping the mapping copies nothing, so it is cheaper than a lookup would save
+        MappedByteBuffer mapped = RawImageReader.map(file);
+        BufferedImage image = RawImageReader.read(file, mapped);
+        // A raw RGB file takes its size from its name, so the size is part of its identity
+        String hash = hash(mapped, image.getWidth() + "x" + image.getHeight());
+        Key key = new Key(Kind.IMAGE, hash, null, 0);
+        BufferedImage cached = (BufferedImage) lookup(key);
+        if (cached == null) {
+            // Pixels left in the mapping are paged in and out by the operating system; only a
+            // rescaled copy of samples with a smaller maximum value lives on the heap
+            DataBuffer pixels = image.getRaster().getDataBuffer();
+            store(key, image, pixels instanceof RawImageReader.MappedDataBuffer ? 0 : pixels.getSize());
+        }
+        return new Source(hash, cached != null ? cached : image, mapped.capacity());
+    }
+
+    /**
+     * Decodes an encoded image, or returns the image decoded earlier from the same bytes.
+     */
+    public Source load(byte[] encoded) throws IOException {
+        String hash = hash(encoded);
+        Key key = new Key(Kind.IMAGE, hash, null, 0);
+        BufferedImage image = (BufferedImage) lookup(key);
+        if (image == null) {
+            image = ImageIO.read(new ByteArrayInputStream(encoded));
+            if (image == null) {
+                throw new IOException("Unsupported image format");
+            }
+            store(key, image, (long) image.getWidth() * image.getHeight() * Integer.BYTES);
+        }
+        return new Source(hash, image, encoded.length);
+    }
+
+    /**
+     * Returns a tree for the image that is not built yet but shares the cached
+     * pixel copy and indices for the method.
+     */
+    public Quadtree newQuadtree(Source source, double errorThreshold, int minBlockSize, ErrorCalculationMethod method) {
+        return new Quadtree(source.image(), errorThreshold, minBlockSize, calculator(source, method, null));
+    }
+
+    /**
+     * Returns the fully built tree for the image, method and minimum block size,
+     * building it on a miss. Cut it with {@link CompactQuadtree#cutAt(double)}.
+     *
+     * @param metrics receives the build's counters on a miss, or {@code null}
+     */
+    public CompactQuadtree fullTree(Source source, int minBlockSize, ErrorCalculationMethod method, CompressionMetrics metrics) {
+        Key key = new Key(Kind.TREE, source.hash(), method, minBlockSize);
+        CompactQuadtree tree = (CompactQuadtree) lookup(key);
+        if (tree == null) {
+            tree = new CompactQuadtree(source.image(), 0.0, minBlockSize, calculator(source, method, metrics));
+            tree.setMetrics(metrics);
+            tree.buildFull();
+            store(key, tree, tree.sizeInBytes());
+        }
+        return tree;
+    }
+
+    private ErrorCalculator calculator(Source source, ErrorCalculationMethod method, CompressionMetrics metrics) {
+        Key key = new Key(Kind.INDEX, source.hash(), method, 0);
+        ErrorCalculator calculator = (ErrorCalculator) lookup(key);
+        if (calculator == null) {
+            // Only the run that builds the index is charged for reading the pixels
+            calculator = new ErrorCalculator(PixelBuffer.fromImage(source.image()), method, metrics).withMetrics(null);
+            store(key, calculator, calculator.sizeInBytes());
+        }
+        return calculator;
+    }
+
+    private synchronized Object lookup(Key key) {
+        Entry entry = entries.get(key);
+        (entry != null ? hits : misses).get(key.kind()).increment();
+        return entry != null ? entry.value() : null;
+    }
+
+    private synchronized void store(Key key, Object value, long bytes) {
+        if (bytes > maxBytes) {
+            // Caching it would only flush everything else out
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, bytes));
+        if (previous != null) {
+            currentBytes -= previous.bytes();
+        }
+        currentBytes += bytes;
+
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Key, Entry> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            currentBytes -= entry.getValue().bytes();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String hash(ByteBuffer data, String size) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data.duplicate());
+            digest.update(size.getBytes(StandardCharsets.US_ASCII));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public long getHits(Kind kind) {
+        return hits.get(kind).sum();
+    }
+
+    public long getMisses(Kind kind) {
+        return misses.get(kind).sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,204 @@
+package quadtreecompression;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing where a compression run spends its work: pixels read by the
+ * error kernels, error evaluations per method, nodes and leaves created at every
+ * depth, time per phase and the cost of every threshold search attempt.
+ *
+ * <p>Counters are cumulative. When a target compression is searched for, the
+ * full tree built for the search and the final tree are both counted, since both
+ * cost time. All counters may be updated concurrently from build and search
+ * worker threads.
+ *
+ * <p>Phases measured through {@link #time(CompressionMetrics, Phase)} are also
+ * emitted as {@code quadtreecompression.Phase} JFR events, and every search
+ * attempt as a {@code quadtreecompression.SearchAttempt} event, so a flight
+ * recording shows the same breakdown without a report being requested.
+ */
+public class CompressionMetrics {
+    public enum Phase {
+        DECODE, BUILD, RENDER, ENCODE, SEARCH;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Measures one phase; closing it adds the elapsed time to the metrics and
+     * commits the matching JFR event.
+     */
+    public static final class PhaseTimer implements AutoCloseable {
+        private final CompressionMetrics metrics;
+        private final Phase phase;
+        private final PhaseEvent event;
+        private final long start;
+
+        private PhaseTimer(CompressionMetrics metrics, Phase phase) {
+            this.metrics = metrics;
+            this.phase = phase;
+            this.event = new PhaseEvent();
+            event.begin();
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - start;
+            if (metrics != null) {
+                metrics.phaseNanos.get(phase).add(elapsed);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase.label();
+                event.commit();
+            }
+        }
+    }
+
+    // Both sides halve at every level, so no block of an int-sized image goes deeper than 32
+    private static final int MAX_DEPTH = 32;
+
+    private final LongAdder pixelsRead = new LongAdder();
+    private final Map<ErrorCalculationMethod, LongAdder> errorEvaluations = new EnumMap<>(ErrorCalculationMethod.class);
+    private final AtomicLongArray nodesPerDepth = new AtomicLongArray(MAX_DEPTH);
+    private final AtomicLongArray leavesPerDepth = new AtomicLongArray(MAX_DEPTH);
+    private final Map<Phase, LongAdder> phaseNanos = new EnumMap<>(Phase.class);
+    private final List<ThresholdSearch.Attempt> attempts = new ArrayList<>();
+
+    public CompressionMetrics() {
+        // Filled up front so the maps are only ever read afterwards
+        for (ErrorCalculationMethod method : ErrorCalculationMethod.values()) {
+            errorEvaluations.put(method, new LongAdder());
+        }
+        for (Phase phase : Phase.values()) {
+            phaseNanos.put(phase, new LongAdder());
+        }
+    }
+
+    /**
+     * Starts timing a phase. {@code metrics} may be {@code null}, in which case
+     * only the JFR event is produced.
+     */
+    public static PhaseTimer time(CompressionMetrics metrics, Phase phase) {
+        return new PhaseTimer(metrics, phase);
+    }
+
+    void recordPixelsRead(long count) {
+        pixelsRead.add(count);
+    }
+
+    void recordErrorEvaluation(ErrorCalculationMethod method, long pixelCount) {
+        errorEvaluations.get(method).increment();
+        if (pixelCount > 0) {
+            pixelsRead.add(pixelCount);
+        }
+    }
+
+    void recordNode(int depth, boolean leaf) {
+        nodesPerDepth.incrementAndGet(depth);
+        if (leaf) {
+            leavesPerDepth.incrementAndGet(depth);
+        }
+    }
+
+    void recordAttempt(ThresholdSearch.Attempt attempt) {
+        synchronized (attempts) {
+            attempts.add(attempt);
+        }
+    }
+
+    public long getPixelsRead() {
+        return pixelsRead.sum();
+    }
+
+    public long getErrorEvaluations(ErrorCalculationMethod method) {
+        return errorEvaluations.get(method).sum();
+    }
+
+    public long getErrorEvaluations() {
+        long total = 0;
+        for (LongAdder count : errorEvaluations.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public long getNodeCount(int depth) {
+        return depth < MAX_DEPTH ? nodesPerDepth.get(depth) : 0;
+    }
+
+    public long getLeafCount(int depth) {
+        return depth < MAX_DEPTH ? leavesPerDepth.get(depth) : 0;
+    }
+
+    public long getPhaseMillis(Phase phase) {
+        return phaseNanos.get(phase).sum() / 1_000_000;
+    }
+
+    public List<ThresholdSearch.Attempt> getAttempts() {
+        synchronized (attempts) {
+            List<ThresholdSearch.Attempt> sorted = new ArrayList<>(attempts);
+            sorted.sort(Comparator.comparingInt(ThresholdSearch.Attempt::number));
+            return sorted;
+        }
+    }
+
+    /**
+     * Writes the counters as a single JSON object.
+     */
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\n");
+        out.write("  \"pixelsRead\": " + getPixelsRead() + ",\n");
+
+        out.write("  \"errorEvaluations\": {");
+        String separator = "";
+        for (ErrorCalculationMethod method : ErrorCalculationMethod.values()) {
+            out.write(separator + "\"" + method.name() + "\": " + getErrorEvaluations(method));
+            separator = ", ";
+        }
+        out.write("},\n");
+
+        out.write("  \"depths\": [");
+        int deepest = MAX_DEPTH - 1;
+        while (deepest >= 0 && nodesPerDepth.get(deepest) == 0) {
+            deepest--;
+        }
+        for (int depth = 0; depth <= deepest; depth++) {
+            out.write(String.format(Locale.ROOT, "%s\n    {\"depth\": %d, \"nodes\": %d, \"leaves\": %d}",
+                    depth > 0 ? "," : "", depth, nodesPerDepth.get(depth), leavesPerDepth.get(depth)));
+        }
+        out.write(deepest >= 0 ? "\n  ],\n" : "],\n");
+
+        out.write("  \"phaseMillis\": {");
+        separator = "";
+        for (Phase phase : Phase.values()) {
+            out.write(String.format(Locale.ROOT, "%s\"%s\": %.3f", separator, phase.label(), phaseNanos.get(phase).sum() / 1e6));
+            separator = ", ";
+        }
+        out.write("},\n");
+
+        out.write("  \"searchAttempts\": [");
+        List<ThresholdSearch.Attempt> sorted = getAttempts();
+        for (int i = 0; i < sorted.size(); i++) {
+            ThresholdSearch.Attempt attempt = sorted.get(i);
+            out.write(String.format(Locale.ROOT, "%s\n    {\"number\": %d, \"threshold\": %.6f, \"size\": %d, \"compression\": %.6f, "
+                    + "\"nodeCount\": %d, \"cutMillis\": %d, \"renderMillis\": %d, \"encodeMillis\": %d}",
+                    i > 0 ? "," : "", attempt.number(), attempt.threshold(), attempt.size(), attempt.compression(),
+                    attempt.nodeCount(), attempt.cutMillis(), attempt.renderMillis(), attempt.encodeMillis()));
+        }
+        out.write(sorted.isEmpty() ? "]\n" : "\n  ]\n");
+        out.write("}");
+    }
+}
@@ -0,0 +1,419 @@
+package quadtreecompression;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Long-running HTTP front end for the compressor, so that images are compressed
+ * by a warm JVM instead of paying startup and JIT warm-up for every one.
+ *
+ * <p>{@code POST /compress} takes the encoded image as the request body and the
+ * parameters in the query string: {@code method}, {@code minBlock}, exactly one of
+ * {@code threshold} or {@code target}, and optionally {@code format} (png, jpg,
+ * qtc, qtp, ...; default png). The response body is the compressed image, or the
+ * serialized tree for {@code qtc} and {@code qtp}. An optional {@code quality}
+ * (0.0-1.0) sets the PNG or JPEG compression quality. For {@code qtp} an optional
+ * {@code depth} cuts the progressive stream after that level, which serves a
+ * thumbnail of the same tree at a fraction of the size. Statistics are returned in {@code X-Quadtree-*}
+ * headers and per-phase times in a {@code Server-Timing} header.
+ * {@code GET /stats} reports request and cache counters as JSON and
+ * {@code GET /health} answers {@code ok}.
+ *
+ * <p>Every request runs on its own virtual thread. Compression itself is
+ * CPU-bound, so a semaphore bounds how many images are processed at once; a
+ * request that cannot get a slot within the queue timeout is answered with 503.
+ * The upload is only read once the request holds a slot, so the memory taken by
+ * request bodies is bounded by the slot count times the upload limit, and an
+ * upload that declares a larger size than allowed is refused up front with 413.
+ * Images whose header claims more pixels than allowed are refused with 413
+ * before they are decoded.
+ * Decoded images, indices and full trees are shared across requests through a
+ * {@link CompressionCache}.
+ */
+public class CompressionServer {
+    private static final String DEFAULT_FORMAT = "png";
+
+    private static class RequestException extends Exception {
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final ServerOptions options;
+    private final CompressionCache cache;
+    private final Semaphore builds;
+    private final int searchThreads;
+    private final Map<String, ImageEncoder> encoders = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public CompressionServer(ServerOptions options) {
+        this.options = options;
+        this.cache = new CompressionCache(options.getCacheBytes());
+        this.builds = new Semaphore(options.getMaxConcurrentBuilds(), true);
+        // Threshold searches of concurrent requests share the processors between them
+        this.searchThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / options.getMaxConcurrentBuilds());
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(options.getPort()), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/compress", exchange -> handle(exchange, "POST", this::compress));
+        server.createContext("/stats", exchange -> handle(exchange, "GET", this::stats));
+        server.createContext("/health", exchange -> handle(exchange, "GET", ex -> respond(ex, 200, "text/plain", "ok".getBytes(StandardCharsets.UTF_8))));
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits up to the given number of seconds for
+     * running ones to finish.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.close();
+    }
+
+    /**
+     * Returns the port actually bound, which differs from the option when it was 0.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException, RequestException;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) {
+        long start = System.nanoTime();
+        requests.increment();
+        int status;
+        try (exchange) {
+            try {
+                if (!exchange.getRequestMethod().equals(method)) {
+                    throw new RequestException(405, "Use " + method);
+                }
+                handler.handle(exchange);
+                status = exchange.getResponseCode();
+            } catch (RequestException e) {
+                status = e.status;
+                respondError(exchange, e.status, e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                status = 500;
+                respondError(exchange, 500, e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        } catch (IOException e) {
+            // The client went away while the response was being written
+            status = -1;
+        }
+        if (status != 200) {
+            failures.increment();
+        }
+        System.out.printf("%s %s %d %d ms%n", exchange.getRequestMethod(), exchange.getRequestURI(), status,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void compress(HttpExchange exchange) throws IOException, RequestException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        ErrorCalculationMethod method;
+        double threshold;
+        double target;
+        int minBlockSize;
+        int maxDepth;
+        float quality;
+        try {
+            method = BatchOptions.parseMethod(required(query, "method"));
+            minBlockSize = BatchOptions.parseInt("minBlock", required(query, "minBlock"));
+            threshold = query.containsKey("threshold") ? BatchOptions.parseDouble("threshold", query.get("threshold")) : Double.NaN;
+            target = query.containsKey("target") ? BatchOptions.parseDouble("target", query.get("target")) : 0.0;
+            maxDepth = query.containsKey("depth") ? BatchOptions.parseInt("depth", query.get("depth")) : Integer.MAX_VALUE;
+            quality = query.containsKey("quality") ? (float) BatchOptions.parseDouble("quality", query.get("quality")) : Float.NaN;
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+        String format = query.getOrDefault("format", DEFAULT_FORMAT).toLowerCase(Locale.ROOT);
+        if (minBlockSize < 1) {
+            throw new RequestException(400, "minBlock must be at least 1");
+        }
+        if (maxDepth < 0 || (maxDepth != Integer.MAX_VALUE && !format.equals(ProgressiveWriter.EXTENSION))) {
+            throw new RequestException(400, "depth must not be negative and is only supported for qtp");
+        }
+        if (Double.isNaN(threshold) == (target <= 0.0) || threshold < 0.0 || target > 1.0) {
+            throw new RequestException(400, "Specify exactly one of threshold (>= 0) or target (0.0-1.0)");
+        }
+        if (!Float.isNaN(quality) && !(quality >= 0.0f && quality <= 1.0f)) {
+            throw new RequestException(400, "quality must be between 0.0 and 1.0");
+        }
+        ImageEncoder encoder = encoder(format, quality);
+        String contentType = contentType(encoder);
+
+        checkDeclaredLength(exchange);
+        // The body is read only once a slot is held, so no more uploads are buffered than builds run
+        acquireBuildSlot();
+        try {
+            byte[] upload = readBody(exchange);
+            CompressionMetrics metrics = new CompressionMetrics();
+            CompressionCache.Source source;
+            try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.DECODE)) {
+                checkPixelCount(upload);
+                source = cache.load(upload);
+            } catch (IOException e) {
+                throw new RequestException(415, e.getMessage());
+            }
+
+            CompressedTree tree = buildTree(source, method, minBlockSize, threshold, target, encoder, metrics);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int length = -1;
+            if (format.equals(QtcWriter.EXTENSION)) {
+                try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE)) {
+                    QtcWriter.write(tree, output);
+                }
+            } else if (format.equals(ProgressiveWriter.EXTENSION)) {
+                try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE)) {
+                    long[] levelEnds = ProgressiveWriter.write(tree, output);
+                    if (maxDepth < levelEnds.length) {
+                        length = (int) levelEnds[maxDepth];
+                    }
+                }
+            } else {
+                BufferedImage compressed = render(tree, metrics);
+                try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE)) {
+                    encoder.write(compressed, output);
+                }
+            }
+
+            byte[] body = length < 0 ? output.toByteArray() : Arrays.copyOf(output.toByteArray(), length);
+            exchange.getResponseHeaders().set("X-Quadtree-Tree-Depth", Integer.toString(tree.getTreeDepth()));
+            exchange.getResponseHeaders().set("X-Quadtree-Node-Count", Integer.toString(tree.getNodeCount()));
+            exchange.getResponseHeaders().set("X-Quadtree-Compression", String.format(Locale.ROOT, "%.4f",
+                    1.0 - (double) body.length / source.encodedSize()));
+            exchange.getResponseHeaders().set("Server-Timing", serverTiming(metrics));
+            respond(exchange, 200, contentType, body);
+        } finally {
+            builds.release();
+        }
+    }
+
+    private CompressedTree buildTree(CompressionCache.Source source, ErrorCalculationMethod method, int minBlockSize,
+            double threshold, double target, ImageEncoder encoder, CompressionMetrics metrics) throws IOException {
+        if (target <= 0.0) {
+            Quadtree quadtree = cache.newQuadtree(source, threshold, minBlockSize, method);
+            quadtree.setMetrics(metrics);
+            quadtree.build();
+            return quadtree;
+        }
+
+        if (encoder.getFormat().equals(QtcWriter.EXTENSION)) {
+            // The .qtc size follows from the node count, so the target is met by one best-first build
+            Quadtree quadtree = cache.newQuadtree(source, 0.0, minBlockSize, method);
+            quadtree.setMetrics(metrics);
+            quadtree.buildBestFirst(Integer.MAX_VALUE, (long) (source.encodedSize() * (1 - target)), Double.MIN_VALUE);
+            return quadtree;
+        }
+
+        CompactQuadtree fullTree = cache.fullTree(source, minBlockSize, method, metrics);
+        ThresholdSearch search = new ThresholdSearch(fullTree, encoder.getFormat(), source.encodedSize(), target);
+        search.setEncoder(encoder);
+        search.setThreadCount(searchThreads);
+        search.setMetrics(metrics);
+        ThresholdSearch.Result result = search.search(ThresholdSearch.getMinThresholdForMethod(method),
+                ThresholdSearch.getMaxThresholdForMethod(method));
+        // The cut is exactly the tree a fresh build at that threshold would produce
+        return fullTree.cutAt(result.threshold());
+    }
+
+    private static BufferedImage render(CompressedTree tree, CompressionMetrics metrics) {
+        if (tree instanceof Quadtree) {
+            // A Quadtree with metrics times its own render
+            return tree.getCompressedImage();
+        }
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.RENDER)) {
+            return tree.getCompressedImage();
+        }
+    }
+
+    private void acquireBuildSlot() throws RequestException {
+        try {
+            if (!builds.tryAcquire(options.getQueueTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                rejections.increment();
+                throw new RequestException(503, "All build slots are busy, try again later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(503, "Interrupted while waiting for a build slot");
+        }
+    }
+
+    /**
+     * Rejects an upload whose declared length is over the limit before waiting
+     * for a slot or reading any of it. Chunked uploads are checked while reading.
+     */
+    private void checkDeclaredLength(HttpExchange exchange) throws RequestException {
+        String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (declared == null) {
+            return;
+        }
+        try {
+            if (Long.parseLong(declared.trim()) > options.getMaxUploadBytes()) {
+                throw new RequestException(413, "Upload exceeds " + options.getMaxUploadBytes() + " bytes");
+            }
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Invalid Content-Length");
+        }
+    }
+
+    /**
+     * Reads the image size from the header of the upload and rejects images
+     * above the pixel limit before anything is decoded, since a small file can
+     * claim a size that would not fit in memory.
+     */
+    private void checkPixelCount(byte[] upload) throws IOException, RequestException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(upload))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > options.getMaxPixels()) {
+                    throw new RequestException(413, "Image exceeds " + options.getMaxPixels() + " pixels");
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private byte[] readBody(HttpExchange exchange) throws IOException, RequestException {
+        long limit = options.getMaxUploadBytes();
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] data = body.readNBytes((int) Math.min(Integer.MAX_VALUE - 8, limit + 1));
+            if (data.length > limit) {
+                throw new RequestException(413, "Upload exceeds " + limit + " bytes");
+            }
+            if (data.length == 0) {
+                throw new RequestException(400, "Request body must contain an image");
+            }
+            return data;
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        StringWriter json = new StringWriter();
+        json.write(String.format(Locale.ROOT, "{\"requests\": %d, \"failures\": %d, \"rejections\": %d, \"activeBuilds\": %d, ",
+                requests.sum(), failures.sum(), rejections.sum(), options.getMaxConcurrentBuilds() - builds.availablePermits()));
+        json.write(String.format(Locale.ROOT, "\"cache\": {\"entries\": %d, \"bytes\": %d, \"maxBytes\": %d, \"evictions\": %d",
+                cache.getEntryCount(), cache.getSizeInBytes(), cache.getMaxBytes(), cache.getEvictions()));
+        for (CompressionCache.Kind kind : CompressionCache.Kind.values()) {
+            String name = kind.name().toLowerCase(Locale.ROOT);
+            json.write(String.format(Locale.ROOT, ", \"%sHits\": %d, \"%sMisses\": %d", name, cache.getHits(kind), name, cache.getMisses(kind)));
+        }
+        json.write("}}\n");
+        respond(exchange, 200, "application/json", json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String serverTiming(CompressionMetrics metrics) {
+        StringBuilder header = new StringBuilder();
+        for (CompressionMetrics.Phase phase : CompressionMetrics.Phase.values()) {
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+            header.append(phase.name().toLowerCase(Locale.ROOT)).append(";dur=").append(metrics.getPhaseMillis(phase));
+        }
+        return header.toString();
+    }
+
+    /**
+     * Returns the shared encoder of the format, or a new one if the request asks
+     * for its own quality, so that the number of pooled encoders stays bounded.
+     */
+    private ImageEncoder encoder(String format, float quality) {
+        if (Float.isNaN(quality)) {
+            return encoders.computeIfAbsent(format, ImageEncoder::new);
+        }
+        ImageEncoder encoder = new ImageEncoder(format);
+        encoder.setCompressionQuality(quality);
+        return encoder;
+    }
+
+    private String contentType(ImageEncoder encoder) throws RequestException {
+        String format = encoder.getFormat();
+        if (format.equals(QtcWriter.EXTENSION) || format.equals(ProgressiveWriter.EXTENSION)) {
+            return "application/octet-stream";
+        }
+        try {
+            return encoder.getMimeType();
+        } catch (IOException e) {
+            // Keep unknown format names from piling up in the pool
+            encoders.remove(format, encoder);
+            throw new RequestException(400, e.getMessage());
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing query parameter: " + name);
+        }
+        return value;
+    }
+
+    private static void respondError(HttpExchange exchange, int status, String message) throws IOException {
+        respond(exchange, status, "text/plain; charset=utf-8", (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Evaluates the homogeneity of an image block with one of the
+ * {@link ErrorCalculationMethod} metrics, backed by the per-image pixel and
+ * summed-area indices so that trees of any layout can share the same kernels.
+ */
+class ErrorCalculator {
+    private static final ThreadLocal<int[]> SCRATCH_HISTOGRAM = ThreadLocal.withInitial(() -> new int[HistogramPyramid.BINS]);
+
+    private final PixelBuffer pixels;
+    private final IntegralImage integral;
+    private final HistogramPyramid histograms;
+    private final MinMaxPyramid extremes;
+    private final ErrorCalculationMethod method;
+    private final CompressionMetrics metrics;
+    private final ChannelKernels kernels = ChannelKernels.INSTANCE;
+    private final boolean scansPixels;
+
+    ErrorCalculator(PixelBuffer pixels, ErrorCalculationMethod method) {
+        this(pixels, method, null);
+    }
+
+    /**
+     * @param metrics receives the pixel reads and error evaluations, or {@code null}
+     */
+    ErrorCalculator(PixelBuffer pixels, ErrorCalculationMethod method, CompressionMetrics metrics) {
+        this.pixels = pixels;
+        this.method = method;
+        this.metrics = metrics;
+        boolean withSquares = method == ErrorCalculationMethod.VARIANCE || method == ErrorCalculationMethod.SSIM;
+        // MAD reads every pixel of the block, the other kernels mostly answer from the per-image indices
+        this.scansPixels = method == ErrorCalculationMethod.MAD;
+        this.integral = new IntegralImage(pixels, withSquares);
+        this.histograms = method == ErrorCalculationMethod.ENTROPY
+                ? new HistogramPyramid(pixels, new QuadtreeGrid(pixels.getWidth(), pixels.getHeight(), HistogramPyramid.MIN_CELL_AREA))
+                : null;
+        this.extremes = method == ErrorCalculationMethod.MAX_PIXEL_DIFFERENCE
+                ? new MinMaxPyramid(pixels, new QuadtreeGrid(pixels.getWidth(), pixels.getHeight(), MinMaxPyramid.MIN_CELL_AREA))
+                : null;
+        if (metrics != null) {
+            metrics.recordPixelsRead((long) pixels.getWidth() * pixels.getHeight());
+        }
+    }
+
+    private ErrorCalculator(ErrorCalculator shared, CompressionMetrics metrics) {
+        this.pixels = shared.pixels;
+        this.method = shared.method;
+        this.metrics = metrics;
+        this.scansPixels = shared.scansPixels;
+        this.integral = shared.integral;
+        this.histograms = shared.histograms;
+        this.extremes = shared.extremes;
+    }
+
+    /**
+     * Returns a calculator over the same pixels and indices that reports to the
+     * given metrics instead, so that a cached index can serve many runs.
+     */
+    ErrorCalculator withMetrics(CompressionMetrics metrics) {
+        return metrics == this.metrics ? this : new ErrorCalculator(this, metrics);
+    }
+
+    ErrorCalculationMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns roughly how much memory the pixel copy and indices take.
+     */
+    long sizeInBytes() {
+        long bytes = 3L * pixels.getWidth() * pixels.getHeight() + integral.sizeInBytes();
+        if (histograms != null) {
+            bytes += histograms.sizeInBytes();
+        }
+        if (extremes != null) {
+            bytes += extremes.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Re-reads a block of the image whose pixels were edited and brings the pixel
+     * copy and all indices up to date, in time proportional to the block area.
+     * Must not run while other threads evaluate blocks or share this calculator.
+     */
+    void update(BufferedImage image, int x, int y, int width, int height) {
+        int[] rgb = image.getRGB(x, y, width, height, null, 0, width);
+        boolean patched = integral.patch(pixels, rgb, x, y, width, height);
+        pixels.setRegion(rgb, x, y, width, height);
+        if (!patched) {
+            integral.rebuild(pixels);
+        }
+        if (histograms != null) {
+            histograms.update(pixels, x, y, width, height);
+        }
+        if (extremes != null) {
+            extremes.update(pixels, x, y, width, height);
+        }
+        if (metrics != null) {
+            metrics.recordPixelsRead((long) width * height);
+        }
+    }
+
+    PixelBuffer getPixels() {
+        return pixels;
+    }
+
+    int getWidth() {
+        return pixels.getWidth();
+    }
+
+    int getHeight() {
+        return pixels.getHeight();
+    }
+
+    int calculateAverageColor(int x, int y, int width, int height) {
+        int totalPixels = width * height;
+        long sumR = integral.sum(IntegralImage.RED, x, y, width, height);
+        long sumG = integral.sum(IntegralImage.GREEN, x, y, width, height);
+        long sumB = integral.sum(IntegralImage.BLUE, x, y, width, height);
+        return packRGB((int)(sumR/totalPixels), (int)(sumG/totalPixels), (int)(sumB/totalPixels));
+    }
+
+    private static int packRGB(int r, int g, int b) {
+        return (r << 16) | (g << 8) | b;
+    }
+
+    double calculateError(int x, int y, int width, int height) {
+        if (metrics != null) {
+            metrics.recordErrorEvaluation(method, scansPixels ? (long) width * height : 0);
+        }
+        switch (method) {
+            case ErrorCalculationMethod.VARIANCE -> {
+                return calculateErrorByVariance(x, y, width, height);
+            }
+            case ErrorCalculationMethod.MAD -> {
+                return calculateErrorByMAD(x, y, width, height);
+            }
+            case ErrorCalculationMethod.MAX_PIXEL_DIFFERENCE -> {
+                return calculateErrorByMPD(x, y, width, height);
+            }
+            case ErrorCalculationMethod.ENTROPY -> {
+                return calculateErrorByEntropy(x, y, width, height);
+            }
+            case ErrorCalculationMethod.SSIM -> {
+                return calculateErrorBySSIM(x, y, width, height);
+            }
+            default -> {
+                return 0.0;
+            }
+        }
+    }
+
+    /**
+     * Evaluates a batch of blocks packed four ints each (x, y, width, height),
+     * writing the error of block {@code i} to {@code errors[i]} for every
+     * {@code from <= i < to}. Safe to call from several threads on disjoint ranges.
+     */
+    void calculateErrors(int[] blocks, int from, int to, double[] errors) {
+        for (int i = from; i < to; i++) {
+            int offset = i * 4;
+            errors[i] = calculateError(blocks[offset], blocks[offset + 1], blocks[offset + 2], blocks[offset + 3]);
+        }
+    }
+
+    private double calculateErrorByVariance(int x, int y, int width, int height) {
+        int avgColor = calculateAverageColor(x, y, width, height);
+        int totalPixel = width * height;
+
+        // Sum of squared deviations from the (truncated) block mean: sum(v^2) - 2 * avg * sum(v) + n * avg^2
+        double varR = squaredDeviation(IntegralImage.RED, (avgColor >> 16) & 0xFF, x, y, width, height) / (double) totalPixel;
+        double varG = squaredDeviation(IntegralImage.GREEN, (avgColor >> 8) & 0xFF, x, y, width, height) / (double) totalPixel;
+        double varB = squaredDeviation(IntegralImage.BLUE, avgColor & 0xFF, x, y, width, height) / (double) totalPixel;
+
+        return (varR + varG + varB) / 3.0;
+    }
+
+    private long squaredDeviation(int channel, long average, int x, int y, int width, int height) {
+        long sum = integral.sum(channel, x, y, width, height);
+        long sumSquared = integral.sumOfSquares(channel, x, y, width, height);
+        return sumSquared - 2 * average * sum + (long) width * height * average * average;
+    }
+
+    private double calculateErrorByMAD(int x, int y, int width, int height) {
+        int avgColor = calculateAverageColor(x, y, width, height);
+        int avgR = (avgColor >> 16) & 0xFF, avgG = (avgColor >> 8) & 0xFF, avgB = avgColor & 0xFF;
+
+        long valueR = 0, valueG = 0, valueB = 0;
+        int totalPixel = width * height;
+        int imageWidth = pixels.getWidth();
+
+        for (int j = y; j < y + height; j++) {
+            int from = j * imageWidth + x;
+            valueR += kernels.sumAbsoluteDeviation(pixels.redPlane(), from, from + width, avgR);
+            valueG += kernels.sumAbsoluteDeviation(pixels.greenPlane(), from, from + width, avgG);
+            valueB += kernels.sumAbsoluteDeviation(pixels.bluePlane(), from, from + width, avgB);
+        }
+
+        double madR = (double) valueR / totalPixel;
+        double madG = (double) valueG / totalPixel;
+        double madB = (double) valueB / totalPixel;
+
+        return (madR + madG + madB) / 3.0;
+    }
+
+    private double calculateErrorByMPD(int x, int y, int width, int height) {
+        double indexed = extremes.maxPixelDifference(x, y, width, height);
+        if (!Double.isNaN(indexed)) {
+            return indexed;
+        }
+        if (metrics != null) {
+            metrics.recordPixelsRead((long) width * height);
+        }
+
+        int maxR = 0, maxG = 0, maxB = 0;
+        int minR = 255, minG = 255, minB = 255;
+        int imageWidth = pixels.getWidth();
+
+        for (int j = y; j < y + height; j++) {
+            int row = j * imageWidth;
+            for (int i = row + x; i < row + x + width; i++) {
+                int r = pixels.red(i);
+                int g = pixels.green(i);
+                int b = pixels.blue(i);
+
+                if (r > maxR) {
+                    maxR = r;
+                }
+                if (g > maxG) {
+                    maxG = g;
+                }
+                if (b > maxB) {
+                    maxB = b;
+                }
+                if (r < minR) {
+                    minR = r;
+                }
+                if (g < minG) {
+                    minG = g;
+                }
+                if (b < minB) {
+                    minB = b;
+                }
+            }
+        }
+
+        double diffR = maxR - minR;
+        double diffG = maxG - minG;
+        double diffB = maxB - minB;
+
+        return (diffR + diffG + diffB) / 3.0;
+    }
+
+    private double calculateErrorByEntropy(int x, int y, int width, int height) {
+        double indexed = histograms.entropy(x, y, width, height);
+        if (!Double.isNaN(indexed)) {
+            return indexed;
+        }
+
+        // Blocks below the pyramid's finest level are small enough to scan. The scratch histogram is
+        // cleared on the way out by visiting the same pixels again, which beats clearing all 256 bins
+        int[] histogram = SCRATCH_HISTOGRAM.get();
+        int imageWidth = pixels.getWidth();
+        for (int j = y; j < y + height; j++) {
+            int row = j * imageWidth;
+            for (int i = row + x; i < row + x + width; i++) {
+                histogram[(pixels.red(i) + pixels.green(i) + pixels.blue(i)) / 3]++;
+            }
+        }
+        double sum = 0.0;
+        for (int j = y; j < y + height; j++) {
+            int row = j * imageWidth;
+            for (int i = row + x; i < row + x + width; i++) {
+                int intensity = (pixels.red(i) + pixels.green(i) + pixels.blue(i)) / 3;
+                int count = histogram[intensity];
+                if (count > 0) {
+                    sum += HistogramPyramid.countLogCount(count);
+                    histogram[intensity] = 0;
+                }
+            }
+        }
+        if (metrics != null) {
+            metrics.recordPixelsRead((long) width * height);
+        }
+
+        return HistogramPyramid.entropy(sum, width * height);
+    }
+
+    private double calculateErrorBySSIM(int x, int y, int width, int height) {
+        final double K1 = 0.01;
+        final double K2 = 0.03;
+        final double L = 255;
+        final double C1 = (K1 * L) * (K1 * L);
+        final double C2 = (K2 * L) * (K2 * L);
+
+        int count = width * height;
+        double sumR = integral.sum(IntegralImage.RED, x, y, width, height);
+        double sumG = integral.sum(IntegralImage.GREEN, x, y, width, height);
+        double sumB = integral.sum(IntegralImage.BLUE, x, y, width, height);
+        double sumSquaredR = integral.sumOfSquares(IntegralImage.RED, x, y, width, height);
+        double sumSquaredG = integral.sumOfSquares(IntegralImage.GREEN, x, y, width, height);
+        double sumSquaredB = integral.sumOfSquares(IntegralImage.BLUE, x, y, width, height);
+
+        double muR = sumR / count;
+        double muG = sumG / count;
+        double muB = sumB / count;
+
+        double varR = (sumSquaredR / count) - (muR * muR);
+        double varG = (sumSquaredG / count) - (muG * muG);
+        double varB = (sumSquaredB / count) - (muB * muB);
+
+        double ssimR = C2 / (varR + C2);
+        double ssimG = C2 / (varG + C2);
+        double ssimB = C2 / (varB + C2);
+
+        double wR = 0.299;
+        double wG = 0.587;
+        double wB = 0.114;
+
+        return 1.0 - (wR * ssimR + wG * ssimG + wB * ssimB); // Invert for the error
+    }
+}
@@ -0,0 +1,212 @@
+package quadtreecompression;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import org.w3c.dom.Node;
+
+/**
+ * Ordered frames of a video or camera feed, read one at a time.
+ *
+ * <p>A sequence comes from a list of images already in memory, an animated GIF,
+ * or a directory of numbered PNG or Netpbm (PPM, PGM, PAM) files. Netpbm frames
+ * are memory-mapped by {@link RawImageReader} rather than decoded. GIF frames are composited onto the
+ * logical screen the way a viewer shows them, honoring each frame's offset and
+ * disposal method, so every frame returned is a complete picture. Frames are
+ * decoded lazily, so only the current one has to fit in memory.
+ */
+public abstract class FrameSequence implements Closeable {
+    private static final Pattern FRAME_NUMBER = Pattern.compile("(\\d+)(?!.*\\d)");
+
+    /**
+     * Returns the next frame, or {@code null} once the sequence is exhausted.
+     */
+    public abstract BufferedImage nextFrame() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    public static FrameSequence of(List<BufferedImage> frames) {
+        Iterator<BufferedImage> iterator = List.copyOf(frames).iterator();
+        return new FrameSequence() {
+            public BufferedImage nextFrame() {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+        };
+    }
+
+    /**
+     * Opens a directory of numbered frames or an animated GIF.
+     */
+    public static FrameSequence open(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            return ofDirectory(path);
+        }
+        return ofGif(path);
+    }
+
+    /**
+     * Reads the PNG and Netpbm files of a directory in the order of the last
+     * number in their names, so {@code frame2.png} comes before {@code frame10.png}.
+     */
+    public static FrameSequence ofDirectory(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.filter(path -> Files.isRegularFile(path)
+                            && (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".png") || RawImageReader.isNetpbm(path)))
+                    .forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(FrameSequence::frameNumber).thenComparing(Path::getFileName));
+        if (files.isEmpty()) {
+            throw new IOException("No PNG or Netpbm frames found in " + directory);
+        }
+
+        Iterator<Path> iterator = files.iterator();
+        return new FrameSequence() {
+            public BufferedImage nextFrame() throws IOException {
+                if (!iterator.hasNext()) {
+                    return null;
+                }
+                Path file = iterator.next();
+                BufferedImage frame = RawImageReader.isNetpbm(file) ? RawImageReader.read(file) : ImageIO.read(file.toFile());
+                if (frame == null) {
+                    throw new IOException("Unsupported image format: " + file);
+                }
+                return frame;
+            }
+        };
+    }
+
+    private static long frameNumber(Path path) {
+        Matcher matcher = FRAME_NUMBER.matcher(path.getFileName().toString());
+        if (!matcher.find()) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Long.parseLong(matcher.group(1));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public static FrameSequence ofGif(Path file) throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(file.toFile());
+        if (stream == null) {
+            throw new IOException("Cannot open image: " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("gif");
+        if (!readers.hasNext()) {
+            stream.close();
+            throw new IOException("No GIF reader available");
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(stream, false, false);
+        return new GifFrames(reader, stream);
+    }
+
+    private static class GifFrames extends FrameSequence {
+        private final ImageReader reader;
+        private final ImageInputStream stream;
+        private BufferedImage canvas;
+        private int index;
+
+        GifFrames(ImageReader reader, ImageInputStream stream) {
+            this.reader = reader;
+            this.stream = stream;
+        }
+
+        public BufferedImage nextFrame() throws IOException {
+            BufferedImage frame;
+            try {
+                frame = reader.read(index);
+            } catch (IndexOutOfBoundsException e) {
+                return null;
+            }
+            IIOMetadataNode metadata = (IIOMetadataNode) reader.getImageMetadata(index).getAsTree("javax_imageio_gif_image_1.0");
+            index++;
+
+            if (canvas == null) {
+                canvas = newCanvas(frame);
+            }
+            int left = intAttribute(metadata, "ImageDescriptor", "imageLeftPosition");
+            int top = intAttribute(metadata, "ImageDescriptor", "imageTopPosition");
+            String disposal = attribute(metadata, "GraphicControlExtension", "disposalMethod");
+
+            BufferedImage restore = "restoreToPrevious".equals(disposal) ? copy(canvas) : null;
+            Graphics2D graphics = canvas.createGraphics();
+            try {
+                // Transparent pixels keep whatever the earlier frames left on the screen
+                graphics.drawImage(frame, left, top, null);
+            } finally {
+                graphics.dispose();
+            }
+            BufferedImage result = copy(canvas);
+
+            int clearWidth = Math.min(frame.getWidth(), canvas.getWidth() - left);
+            int clearHeight = Math.min(frame.getHeight(), canvas.getHeight() - top);
+            if ("restoreToBackgroundColor".equals(disposal) && clearWidth > 0 && clearHeight > 0) {
+                RasterFill.fill(RasterFill.pixels(canvas), canvas.getWidth(), left, top, clearWidth, clearHeight, 0);
+            } else if (restore != null) {
+                canvas = restore;
+            }
+            return result;
+        }
+
+        private BufferedImage newCanvas(BufferedImage firstFrame) throws IOException {
+            int width = 0;
+            int height = 0;
+            IIOMetadata stream = reader.getStreamMetadata();
+            if (stream != null) {
+                IIOMetadataNode root = (IIOMetadataNode) stream.getAsTree("javax_imageio_gif_stream_1.0");
+                width = intAttribute(root, "LogicalScreenDescriptor", "logicalScreenWidth");
+                height = intAttribute(root, "LogicalScreenDescriptor", "logicalScreenHeight");
+            }
+            return RasterFill.newImage(width > 0 ? width : firstFrame.getWidth(), height > 0 ? height : firstFrame.getHeight());
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.dispose();
+            stream.close();
+        }
+    }
+
+    private static String attribute(IIOMetadataNode root, String element, String name) {
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeName().equals(element)) {
+                String value = ((IIOMetadataNode) child).getAttribute(name);
+                return value.isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
+
+    private static int intAttribute(IIOMetadataNode root, String element, String name) {
+        String value = attribute(root, element, name);
+        return value != null ? Integer.parseInt(value) : 0;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = RasterFill.newImage(image.getWidth(), image.getHeight());
+        int[] source = RasterFill.pixels(image);
+        System.arraycopy(source, 0, RasterFill.pixels(copy), 0, source.length);
+        return copy;
+    }
+}
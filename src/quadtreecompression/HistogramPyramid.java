@@ -0,0 +1,160 @@
+package quadtreecompression;
+
+import java.util.Arrays;
+
+/**
+ * Intensity histograms of every {@link QuadtreeGrid} cell, so that the entropy of
+ * a quadtree node costs one pass over 256 bins no matter how large the node is.
+ *
+ * <p>The finest level is filled from the pixels in a single pass and every
+ * coarser cell is the sum of its four children. Cells are kept down to an area
+ * of about 256 pixels; smaller blocks are cheaper to scan than to merge.
+ */
+class HistogramPyramid {
+    static final int BINS = 256;
+    static final int MIN_CELL_AREA = BINS;
+
+    // c * log2(c) for every count small enough to be common; larger counts are computed directly
+    private static final int TABLE_SIZE = 1 << 16;
+    private static final double[] COUNT_LOG_COUNT = new double[TABLE_SIZE];
+    private static final double LN_2 = Math.log(2);
+
+    static {
+        for (int count = 1; count < TABLE_SIZE; count++) {
+            COUNT_LOG_COUNT[count] = count * (Math.log(count) / LN_2);
+        }
+    }
+
+    private final QuadtreeGrid grid;
+    private final int[][] histograms;
+
+    HistogramPyramid(PixelBuffer pixels, QuadtreeGrid grid) {
+        this.grid = grid;
+        int levels = grid.getLevels();
+        histograms = new int[levels][];
+        if (levels == 0) {
+            return;
+        }
+        for (int level = 0; level < levels; level++) {
+            int cells = grid.getCellsPerSide(level);
+            histograms[level] = new int[cells * cells * BINS];
+        }
+
+        int finest = levels - 1;
+        int cells = grid.getCellsPerSide(finest);
+        for (int row = 0; row < cells; row++) {
+            for (int column = 0; column < cells; column++) {
+                fillCell(pixels, row, column);
+            }
+        }
+        for (int level = finest - 1; level >= 0; level--) {
+            int parentCells = grid.getCellsPerSide(level);
+            for (int row = 0; row < parentCells; row++) {
+                for (int column = 0; column < parentCells; column++) {
+                    mergeCell(level, row, column);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recounts the histograms of every cell that overlaps the block, after its
+     * pixels changed. Only the finest cells are scanned, so the cost follows the
+     * block area rather than the image size.
+     */
+    void update(PixelBuffer pixels, int x, int y, int width, int height) {
+        int finest = grid.getLevels() - 1;
+        for (int level = finest; level >= 0; level--) {
+            int lastRow = grid.rowAt(level, y + height - 1);
+            int lastColumn = grid.columnAt(level, x + width - 1);
+            for (int row = grid.rowAt(level, y); row <= lastRow; row++) {
+                for (int column = grid.columnAt(level, x); column <= lastColumn; column++) {
+                    if (level == finest) {
+                        fillCell(pixels, row, column);
+                    } else {
+                        mergeCell(level, row, column);
+                    }
+                }
+            }
+        }
+    }
+
+    private void fillCell(PixelBuffer pixels, int row, int column) {
+        int finest = grid.getLevels() - 1;
+        int cells = grid.getCellsPerSide(finest);
+        int[] finestHistograms = histograms[finest];
+        int top = grid.rowStart(finest, row);
+        int bottom = grid.rowStart(finest, row + 1);
+        int left = grid.columnStart(finest, column);
+        int right = grid.columnStart(finest, column + 1);
+        int offset = (row * cells + column) * BINS;
+        int width = pixels.getWidth();
+        Arrays.fill(finestHistograms, offset, offset + BINS, 0);
+        for (int j = top; j < bottom; j++) {
+            int index = j * width;
+            for (int i = index + left; i < index + right; i++) {
+                finestHistograms[offset + (pixels.red(i) + pixels.green(i) + pixels.blue(i)) / 3]++;
+            }
+        }
+    }
+
+    private void mergeCell(int level, int row, int column) {
+        int parentCells = grid.getCellsPerSide(level);
+        int childCells = parentCells * 2;
+        int[] parents = histograms[level];
+        int[] children = histograms[level + 1];
+        int parent = (row * parentCells + column) * BINS;
+        int topLeft = (2 * row * childCells + 2 * column) * BINS;
+        int bottomLeft = topLeft + childCells * BINS;
+        for (int bin = 0; bin < BINS; bin++) {
+            parents[parent + bin] = children[topLeft + bin] + children[topLeft + BINS + bin]
+                    + children[bottomLeft + bin] + children[bottomLeft + BINS + bin];
+        }
+    }
+
+    long sizeInBytes() {
+        long bytes = 0;
+        for (int[] level : histograms) {
+            bytes += (long) level.length * Integer.BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the entropy of the block, or {@code NaN} if the block is not an
+     * indexed cell and has to be scanned instead.
+     */
+    double entropy(int x, int y, int width, int height) {
+        int level = grid.levelOf(x, y, width, height);
+        if (level < 0) {
+            return Double.NaN;
+        }
+        return entropy(histograms[level], grid.cellOf(level, x, y) * BINS, width * height);
+    }
+
+    /**
+     * Entropy in bits of the 256-bin histogram at {@code offset} holding
+     * {@code total} samples, using {@code -sum(p log2 p) = log2 n - sum(c log2 c) / n}
+     * so that only per-count terms are needed.
+     */
+    private static double entropy(int[] histogram, int offset, int total) {
+        double sum = 0.0;
+        for (int i = offset; i < offset + BINS; i++) {
+            sum += countLogCount(histogram[i]);
+        }
+        return entropy(sum, total);
+    }
+
+    /**
+     * Entropy in bits of a histogram of {@code total} samples whose per-bin
+     * {@code c log2 c} terms add up to {@code countLogCountSum}.
+     */
+    static double entropy(double countLogCountSum, int total) {
+        // Clamped so a uniform block is exactly zero rather than a rounding error below it
+        return Math.max(0.0, countLogCount(total) / total - countLogCountSum / total);
+    }
+
+    static double countLogCount(int count) {
+        return count < TABLE_SIZE ? COUNT_LOG_COUNT[count] : count * (Math.log(count) / LN_2);
+    }
+}
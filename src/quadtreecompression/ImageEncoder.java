@@ -0,0 +1,250 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.ImageOutputStreamImpl;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes images in one ImageIO format with reused writers and fixed settings.
+ *
+ * <p>{@code ImageIO.write} looks up a new writer for every call and, when
+ * writing to a plain stream, caches the whole output in a temporary file so
+ * that the writer can seek back. This class keeps idle writers in a pool, so
+ * any number of threads can encode at once without repeating the lookup, and
+ * writes to seekable sinks of its own instead: {@link #measure} only counts the
+ * bytes, and {@link #write(BufferedImage, Path)} writes through a
+ * {@link FileChannel} with a single buffer.
+ */
+public final class ImageEncoder {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String format;
+    private final Queue<ImageWriter> idleWriters = new ConcurrentLinkedQueue<>();
+    private float quality = Float.NaN;
+
+    public ImageEncoder(String format) {
+        this.format = format;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets the compression quality between 0.0 and 1.0, as defined by the
+     * format's writer: for JPEG the image quality, for PNG the trade-off
+     * between deflate effort and size, where lower values compress harder.
+     * Formats without compression settings ignore it.
+     */
+    public void setCompressionQuality(float quality) {
+        if (!(quality >= 0.0f && quality <= 1.0f)) {
+            throw new IllegalArgumentException("Compression quality must be between 0.0 and 1.0");
+        }
+        this.quality = quality;
+    }
+
+    /**
+     * Returns the MIME type of the format, or {@code application/octet-stream}
+     * if the writer does not name one.
+     */
+    public String getMimeType() throws IOException {
+        ImageWriter writer = acquire();
+        try {
+            String[] types = writer.getOriginatingProvider().getMIMETypes();
+            return types != null && types.length > 0 ? types[0] : "application/octet-stream";
+        } finally {
+            release(writer);
+        }
+    }
+
+    /**
+     * Encodes the image into a sink that discards the data and returns its size in bytes.
+     */
+    public long measure(BufferedImage image) throws IOException {
+        try (ChannelOutputStream sink = new ChannelOutputStream(null)) {
+            encode(image, sink);
+            return sink.length();
+        }
+    }
+
+    public void write(BufferedImage image, OutputStream out) throws IOException {
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            encode(image, stream);
+        }
+    }
+
+    /**
+     * Writes the image to a file, replacing any previous content.
+     */
+    public void write(BufferedImage image, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+                ChannelOutputStream stream = new ChannelOutputStream(channel)) {
+            encode(image, stream);
+        }
+    }
+
+    private void encode(BufferedImage image, ImageOutputStream stream) throws IOException {
+        ImageWriter writer = acquire();
+        boolean reusable = false;
+        try {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), writeParam(writer));
+            stream.flush();
+            reusable = true;
+        } finally {
+            if (reusable) {
+                release(writer);
+            } else {
+                writer.dispose();
+            }
+        }
+    }
+
+    private ImageWriteParam writeParam(ImageWriter writer) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (!Float.isNaN(quality) && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (param.getCompressionType() == null) {
+                param.setCompressionType(param.getCompressionTypes()[0]);
+            }
+            param.setCompressionQuality(quality);
+        }
+        return param;
+    }
+
+    private ImageWriter acquire() throws IOException {
+        ImageWriter writer = idleWriters.poll();
+        if (writer != null) {
+            return writer;
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer available for format: " + format);
+        }
+        return writers.next();
+    }
+
+    private void release(ImageWriter writer) {
+        writer.reset();
+        idleWriters.offer(writer);
+    }
+
+    /**
+     * Seekable output buffered in memory and written to a file channel at the
+     * positions the writer chose, or only counted if there is no channel.
+     * Writers such as PNG seek back to fill in chunk lengths, so the size is the
+     * furthest position written rather than the number of bytes.
+     */
+    private static final class ChannelOutputStream extends ImageOutputStreamImpl {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        // Position in the file of the first byte in the buffer
+        private long bufferStart;
+        private long length;
+
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkClosed();
+            flushBits();
+            prepareWrite();
+            buffer.put((byte) b);
+            advance(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            flushBits();
+            while (len > 0) {
+                prepareWrite();
+                int chunk = Math.min(len, buffer.remaining());
+                buffer.put(b, off, chunk);
+                advance(chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (channel == null || len == 0) {
+                return channel == null ? -1 : 0;
+            }
+            flushBuffer();
+            int read = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+            if (read > 0) {
+                streamPos += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushBuffer();
+            super.close();
+        }
+
+        /**
+         * Makes sure the next byte goes into the buffer at the current stream position.
+         */
+        private void prepareWrite() throws IOException {
+            if (streamPos != bufferStart + buffer.position() || !buffer.hasRemaining()) {
+                flushBuffer();
+            }
+        }
+
+        private void advance(int count) {
+            streamPos += count;
+            length = Math.max(length, streamPos);
+        }
+
+        private void flushBuffer() throws IOException {
+            if (channel != null) {
+                buffer.flip();
+                long position = bufferStart;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            buffer.clear();
+            bufferStart = streamPos;
+        }
+    }
+}
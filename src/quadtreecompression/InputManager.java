@@ -15,6 +15,9 @@ public class InputManager {
     private String imageInputPath;
     private double minCompressionPercentage;
     private int maxSearchAttempts = 10;
+    private CompressionMetrics metrics;
+    private CompressionCache cache;
+    private CompressionCache.Source source;
 
     public BufferedImage getImage() {
         return image;
@@ -52,6 +55,25 @@ public class InputManager {
         this.errorThreshold = threshold;
     }
 
+    /**
+     * Makes {@link #getUserImage(Scanner)} decode through the given cache, so the
+     * loaded image can be looked up again with {@link #getSource()}.
+     */
+    public void setCache(CompressionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the cached form of the loaded image, or {@code null} without a cache.
+     */
+    public CompressionCache.Source getSource() {
+        return source;
+    }
+
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public void setMinimumBlockSize(int size) {
         this.minimumBlockSize = size;
     }
@@ -256,8 +278,13 @@ public class InputManager {
                 System.out.println("File tidak dapat dibaca, silakan masukkan alamat dengan akses read!");
                 continue;
             }
-            try {
-                image = ImageIO.read(imageFile);
+            try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.DECODE)) {
+                if (cache != null) {
+                    source = cache.load(imageFile.toPath());
+                    image = source.image();
+                } else {
+                    image = RawImageReader.canRead(imageFile.toPath()) ? RawImageReader.read(imageFile.toPath()) : ImageIO.read(imageFile);
+                }
                 if (image == null) {
                     System.out.println("Format gambar tidak didukung atau file rusak");
                 } else {
@@ -0,0 +1,240 @@
+package quadtreecompression;
+
+import java.util.Arrays;
+
+/**
+ * Summed-area tables of the channel values, and optionally of their squares,
+ * so that the sum over any block is four lookups.
+ *
+ * <p>An edit to a region changes every entry below and to the right of it, so
+ * instead of rewriting the tables, {@link #patch} records the change as a small
+ * table of its own covering only the edited region. Lookups add the patches
+ * that overlap the block. Once too many patches pile up they are merged into
+ * one covering their bounding box, or folded back into the main tables with a
+ * single rebuild if that box is large.
+ */
+class IntegralImage {
+    static final int RED = 0;
+    static final int GREEN = 1;
+    static final int BLUE = 2;
+
+    private static final int MAX_PATCHES = 32;
+
+    /**
+     * Summed-area tables of the difference between the new and old values of an edited region.
+     */
+    private record Patch(int x, int y, int width, int height, long[][] sums, long[][] squares) {
+        /**
+         * Returns the sum of the table over the part of the block that overlaps this patch.
+         */
+        long lookup(long[] table, int blockX, int blockY, int blockWidth, int blockHeight) {
+            int left = Math.max(x, blockX);
+            int top = Math.max(y, blockY);
+            int right = Math.min(x + width, blockX + blockWidth);
+            int bottom = Math.min(y + height, blockY + blockHeight);
+            if (left >= right || top >= bottom) {
+                return 0;
+            }
+            return IntegralImage.lookup(table, width + 1, left - x, top - y, right - left, bottom - top);
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final long[][] sums = new long[3][];
+    private final long[][] squares;
+    private final Patch[] patches = new Patch[MAX_PATCHES];
+    private int patchCount;
+
+    IntegralImage(PixelBuffer pixels, boolean withSquares) {
+        width = pixels.getWidth();
+        height = pixels.getHeight();
+        stride = width + 1;
+
+        int size = stride * (height + 1);
+        for (int c = 0; c < 3; c++) {
+            sums[c] = new long[size];
+        }
+        squares = withSquares ? new long[3][] : null;
+        if (withSquares) {
+            for (int c = 0; c < 3; c++) {
+                squares[c] = new long[size];
+            }
+        }
+        fill(pixels);
+    }
+
+    private void fill(PixelBuffer pixels) {
+        for (int j = 0; j < height; j++) {
+            long rowR = 0, rowG = 0, rowB = 0;
+            long rowSquaredR = 0, rowSquaredG = 0, rowSquaredB = 0;
+            int above = j * stride;
+            int current = above + stride;
+            int source = j * width;
+            for (int i = 0; i < width; i++) {
+                int r = pixels.red(source + i);
+                int g = pixels.green(source + i);
+                int b = pixels.blue(source + i);
+                rowR += r;
+                rowG += g;
+                rowB += b;
+                sums[RED][current + i + 1] = sums[RED][above + i + 1] + rowR;
+                sums[GREEN][current + i + 1] = sums[GREEN][above + i + 1] + rowG;
+                sums[BLUE][current + i + 1] = sums[BLUE][above + i + 1] + rowB;
+                if (squares != null) {
+                    rowSquaredR += r * r;
+                    rowSquaredG += g * g;
+                    rowSquaredB += b * b;
+                    squares[RED][current + i + 1] = squares[RED][above + i + 1] + rowSquaredR;
+                    squares[GREEN][current + i + 1] = squares[GREEN][above + i + 1] + rowSquaredG;
+                    squares[BLUE][current + i + 1] = squares[BLUE][above + i + 1] + rowSquaredB;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that the block is about to change from the values in {@code pixels}
+     * to {@code rgb}, packed row-major with a stride of {@code blockWidth}.
+     *
+     * @return {@code false} if the change is too large to patch, in which case the
+     *         caller must call {@link #rebuild} once {@code pixels} holds the new values
+     */
+    boolean patch(PixelBuffer pixels, int[] rgb, int x, int y, int blockWidth, int blockHeight) {
+        // A patch as large as a quarter of the image costs about as much to keep as a rebuild
+        if ((long) blockWidth * blockHeight * 4 > (long) width * height) {
+            return false;
+        }
+        if (patchCount == MAX_PATCHES && !coalescePatches()) {
+            return false;
+        }
+
+        int patchStride = blockWidth + 1;
+        int size = patchStride * (blockHeight + 1);
+        long[][] patchSums = {new long[size], new long[size], new long[size]};
+        long[][] patchSquares = squares != null ? new long[][] {new long[size], new long[size], new long[size]} : null;
+        for (int c = 0; c < 3; c++) {
+            int shift = 16 - 8 * c;
+            byte[] plane = c == RED ? pixels.redPlane() : c == GREEN ? pixels.greenPlane() : pixels.bluePlane();
+            for (int j = 0; j < blockHeight; j++) {
+                long rowSum = 0;
+                long rowSquares = 0;
+                int above = j * patchStride;
+                int current = above + patchStride;
+                int source = (y + j) * width + x;
+                for (int i = 0; i < blockWidth; i++) {
+                    int next = (rgb[j * blockWidth + i] >> shift) & 0xFF;
+                    int previous = plane[source + i] & 0xFF;
+                    rowSum += next - previous;
+                    patchSums[c][current + i + 1] = patchSums[c][above + i + 1] + rowSum;
+                    if (patchSquares != null) {
+                        rowSquares += next * next - previous * previous;
+                        patchSquares[c][current + i + 1] = patchSquares[c][above + i + 1] + rowSquares;
+                    }
+                }
+            }
+        }
+        patches[patchCount++] = new Patch(x, y, blockWidth, blockHeight, patchSums, patchSquares);
+        return true;
+    }
+
+    /**
+     * Replaces all patches with a single one covering their bounding box, which
+     * keeps strokes in the same area from ever forcing a rebuild.
+     *
+     * @return {@code false} if the bounding box is too large to be worth patching
+     */
+    private boolean coalescePatches() {
+        int left = width, top = height, right = 0, bottom = 0;
+        for (int p = 0; p < patchCount; p++) {
+            left = Math.min(left, patches[p].x());
+            top = Math.min(top, patches[p].y());
+            right = Math.max(right, patches[p].x() + patches[p].width());
+            bottom = Math.max(bottom, patches[p].y() + patches[p].height());
+        }
+        int mergedWidth = right - left;
+        int mergedHeight = bottom - top;
+        if ((long) mergedWidth * mergedHeight * 4 > (long) width * height) {
+            return false;
+        }
+
+        long[][] mergedSums = new long[3][];
+        long[][] mergedSquares = squares != null ? new long[3][] : null;
+        for (int c = 0; c < 3; c++) {
+            mergedSums[c] = mergeTables(c, false, left, top, mergedWidth, mergedHeight);
+            if (mergedSquares != null) {
+                mergedSquares[c] = mergeTables(c, true, left, top, mergedWidth, mergedHeight);
+            }
+        }
+        Arrays.fill(patches, null);
+        patches[0] = new Patch(left, top, mergedWidth, mergedHeight, mergedSums, mergedSquares);
+        patchCount = 1;
+        return true;
+    }
+
+    private long[] mergeTables(int channel, boolean ofSquares, int left, int top, int mergedWidth, int mergedHeight) {
+        // Recover every patch's per-pixel differences and add them up, then sum them into one table
+        long[] differences = new long[mergedWidth * mergedHeight];
+        for (int p = 0; p < patchCount; p++) {
+            Patch patch = patches[p];
+            long[] table = ofSquares ? patch.squares()[channel] : patch.sums()[channel];
+            int patchStride = patch.width() + 1;
+            for (int j = 0; j < patch.height(); j++) {
+                int target = (patch.y() - top + j) * mergedWidth + patch.x() - left;
+                for (int i = 0; i < patch.width(); i++) {
+                    differences[target + i] += lookup(table, patchStride, i, j, 1, 1);
+                }
+            }
+        }
+
+        int mergedStride = mergedWidth + 1;
+        long[] merged = new long[mergedStride * (mergedHeight + 1)];
+        for (int j = 0; j < mergedHeight; j++) {
+            long row = 0;
+            int above = j * mergedStride;
+            int current = above + mergedStride;
+            for (int i = 0; i < mergedWidth; i++) {
+                row += differences[j * mergedWidth + i];
+                merged[current + i + 1] = merged[above + i + 1] + row;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Drops all patches and recomputes the tables from the current pixels.
+     */
+    void rebuild(PixelBuffer pixels) {
+        Arrays.fill(patches, null);
+        patchCount = 0;
+        fill(pixels);
+    }
+
+    long sum(int channel, int x, int y, int width, int height) {
+        long sum = lookup(sums[channel], stride, x, y, width, height);
+        for (int p = 0; p < patchCount; p++) {
+            sum += patches[p].lookup(patches[p].sums()[channel], x, y, width, height);
+        }
+        return sum;
+    }
+
+    long sumOfSquares(int channel, int x, int y, int width, int height) {
+        long sum = lookup(squares[channel], stride, x, y, width, height);
+        for (int p = 0; p < patchCount; p++) {
+            sum += patches[p].lookup(patches[p].squares()[channel], x, y, width, height);
+        }
+        return sum;
+    }
+
+    long sizeInBytes() {
+        long tables = squares != null ? 6 : 3;
+        return tables * sums[RED].length * Long.BYTES;
+    }
+
+    private static long lookup(long[] table, int stride, int x, int y, int width, int height) {
+        int top = y * stride;
+        int bottom = (y + height) * stride;
+        return table[bottom + x + width] - table[top + x + width] - table[bottom + x] + table[top + x];
+    }
+}
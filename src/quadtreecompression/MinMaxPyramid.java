@@ -0,0 +1,150 @@
+package quadtreecompression;
+
+/**
+ * Per-channel minimum and maximum of every {@link QuadtreeGrid} cell, so that the
+ * maximum pixel difference of a quadtree node is a single lookup instead of a
+ * scan of its pixels at every depth.
+ *
+ * <p>The finest level is filled from the pixels in a single pass and every
+ * coarser cell combines its four children. Six bytes per cell keep the whole
+ * pyramid at about half a byte per pixel with cells down to 16 pixels; smaller
+ * blocks are scanned.
+ */
+class MinMaxPyramid {
+    static final int MIN_CELL_AREA = 16;
+
+    // Per cell: minimum and maximum red, green and blue, as unsigned bytes
+    private static final int STRIDE = 6;
+
+    private final QuadtreeGrid grid;
+    private final byte[][] extremes;
+
+    MinMaxPyramid(PixelBuffer pixels, QuadtreeGrid grid) {
+        this.grid = grid;
+        int levels = grid.getLevels();
+        extremes = new byte[levels][];
+        if (levels == 0) {
+            return;
+        }
+        for (int level = 0; level < levels; level++) {
+            int cells = grid.getCellsPerSide(level);
+            extremes[level] = new byte[cells * cells * STRIDE];
+        }
+
+        int finest = levels - 1;
+        int cells = grid.getCellsPerSide(finest);
+        for (int row = 0; row < cells; row++) {
+            for (int column = 0; column < cells; column++) {
+                fillCell(pixels, row, column);
+            }
+        }
+        for (int level = finest - 1; level >= 0; level--) {
+            int parentCells = grid.getCellsPerSide(level);
+            for (int row = 0; row < parentCells; row++) {
+                for (int column = 0; column < parentCells; column++) {
+                    mergeCell(level, row, column);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recomputes the extremes of every cell that overlaps the block, after its
+     * pixels changed. Only the finest cells are scanned.
+     */
+    void update(PixelBuffer pixels, int x, int y, int width, int height) {
+        int finest = grid.getLevels() - 1;
+        for (int level = finest; level >= 0; level--) {
+            int lastRow = grid.rowAt(level, y + height - 1);
+            int lastColumn = grid.columnAt(level, x + width - 1);
+            for (int row = grid.rowAt(level, y); row <= lastRow; row++) {
+                for (int column = grid.columnAt(level, x); column <= lastColumn; column++) {
+                    if (level == finest) {
+                        fillCell(pixels, row, column);
+                    } else {
+                        mergeCell(level, row, column);
+                    }
+                }
+            }
+        }
+    }
+
+    private void fillCell(PixelBuffer pixels, int row, int column) {
+        int finest = grid.getLevels() - 1;
+        int cells = grid.getCellsPerSide(finest);
+        int top = grid.rowStart(finest, row);
+        int bottom = grid.rowStart(finest, row + 1);
+        int left = grid.columnStart(finest, column);
+        int right = grid.columnStart(finest, column + 1);
+        int width = pixels.getWidth();
+        int minR = 255, minG = 255, minB = 255;
+        int maxR = 0, maxG = 0, maxB = 0;
+        for (int j = top; j < bottom; j++) {
+            int index = j * width;
+            for (int i = index + left; i < index + right; i++) {
+                int r = pixels.red(i);
+                int g = pixels.green(i);
+                int b = pixels.blue(i);
+                minR = Math.min(minR, r);
+                maxR = Math.max(maxR, r);
+                minG = Math.min(minG, g);
+                maxG = Math.max(maxG, g);
+                minB = Math.min(minB, b);
+                maxB = Math.max(maxB, b);
+            }
+        }
+        store(extremes[finest], (row * cells + column) * STRIDE, minR, maxR, minG, maxG, minB, maxB);
+    }
+
+    private void mergeCell(int level, int row, int column) {
+        int parentCells = grid.getCellsPerSide(level);
+        int childCells = parentCells * 2;
+        byte[] parents = extremes[level];
+        byte[] children = extremes[level + 1];
+        int topLeft = (2 * row * childCells + 2 * column) * STRIDE;
+        int bottomLeft = topLeft + childCells * STRIDE;
+        int parent = (row * parentCells + column) * STRIDE;
+        for (int k = 0; k < STRIDE; k += 2) {
+            int min = Math.min(Math.min(children[topLeft + k] & 0xFF, children[topLeft + STRIDE + k] & 0xFF),
+                    Math.min(children[bottomLeft + k] & 0xFF, children[bottomLeft + STRIDE + k] & 0xFF));
+            int max = Math.max(Math.max(children[topLeft + k + 1] & 0xFF, children[topLeft + STRIDE + k + 1] & 0xFF),
+                    Math.max(children[bottomLeft + k + 1] & 0xFF, children[bottomLeft + STRIDE + k + 1] & 0xFF));
+            parents[parent + k] = (byte) min;
+            parents[parent + k + 1] = (byte) max;
+        }
+    }
+
+    private static void store(byte[] target, int offset, int minR, int maxR, int minG, int maxG, int minB, int maxB) {
+        target[offset] = (byte) minR;
+        target[offset + 1] = (byte) maxR;
+        target[offset + 2] = (byte) minG;
+        target[offset + 3] = (byte) maxG;
+        target[offset + 4] = (byte) minB;
+        target[offset + 5] = (byte) maxB;
+    }
+
+    long sizeInBytes() {
+        long bytes = 0;
+        for (byte[] level : extremes) {
+            bytes += level.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the mean over the channels of max - min for the block, or
+     * {@code NaN} if the block is not an indexed cell and has to be scanned instead.
+     */
+    double maxPixelDifference(int x, int y, int width, int height) {
+        int level = grid.levelOf(x, y, width, height);
+        if (level < 0) {
+            return Double.NaN;
+        }
+        byte[] cells = extremes[level];
+        int offset = grid.cellOf(level, x, y) * STRIDE;
+        double diffR = (cells[offset + 1] & 0xFF) - (cells[offset] & 0xFF);
+        double diffG = (cells[offset + 3] & 0xFF) - (cells[offset + 2] & 0xFF);
+        double diffB = (cells[offset + 5] & 0xFF) - (cells[offset + 4] & 0xFF);
+        return (diffR + diffG + diffB) / 3.0;
+    }
+}
@@ -0,0 +1,16 @@
+package quadtreecompression;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("quadtreecompression.Phase")
+@Label("Compression Phase")
+@Category("Quadtree Compression")
+@Description("Time spent decoding, building, rendering, encoding or searching")
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+}
@@ -0,0 +1,232 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.ByteBuffer;
+
+/**
+ * Planar 8-bit copy of the red, green and blue channels of an image, stored
+ * row-major so that pixel (x, y) lives at index {@code y * width + x}.
+ */
+class PixelBuffer {
+    private final int width;
+    private final int height;
+    private final byte[] red;
+    private final byte[] green;
+    private final byte[] blue;
+
+    private PixelBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int size = width * height;
+        this.red = new byte[size];
+        this.green = new byte[size];
+        this.blue = new byte[size];
+    }
+
+    static PixelBuffer fromImage(BufferedImage image) {
+        PixelBuffer pixels = new PixelBuffer(image.getWidth(), image.getHeight());
+        if (!pixels.copyPackedInts(image) && !pixels.copyInterleavedBytes(image) && !pixels.copyMappedBytes(image)) {
+            pixels.copyThroughColorModel(image);
+        }
+        return pixels;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int red(int index) {
+        return red[index] & 0xFF;
+    }
+
+    int green(int index) {
+        return green[index] & 0xFF;
+    }
+
+    int blue(int index) {
+        return blue[index] & 0xFF;
+    }
+
+    /**
+     * Returns the backing red plane for kernels that process whole rows at once.
+     * The values are unsigned; callers must not modify the array.
+     */
+    byte[] redPlane() {
+        return red;
+    }
+
+    byte[] greenPlane() {
+        return green;
+    }
+
+    byte[] bluePlane() {
+        return blue;
+    }
+
+    /**
+     * Overwrites a block with packed RGB values laid out row-major with a stride
+     * of {@code blockWidth}.
+     */
+    void setRegion(int[] rgb, int x, int y, int blockWidth, int blockHeight) {
+        for (int j = 0; j < blockHeight; j++) {
+            int source = j * blockWidth;
+            int target = (y + j) * width + x;
+            for (int i = 0; i < blockWidth; i++) {
+                int color = rgb[source + i];
+                red[target + i] = (byte) (color >> 16);
+                green[target + i] = (byte) (color >> 8);
+                blue[target + i] = (byte) color;
+            }
+        }
+    }
+
+    private boolean copyPackedInts(BufferedImage image) {
+        Raster raster = image.getRaster();
+        ColorModel colorModel = image.getColorModel();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt buffer)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel)
+                || !(colorModel instanceof DirectColorModel directModel)
+                || !directModel.getColorSpace().isCS_sRGB()
+                || directModel.isAlphaPremultiplied()
+                || !isByteMask(directModel.getRedMask())
+                || !isByteMask(directModel.getGreenMask())
+                || !isByteMask(directModel.getBlueMask())) {
+            return false;
+        }
+
+        int redShift = Integer.numberOfTrailingZeros(directModel.getRedMask());
+        int greenShift = Integer.numberOfTrailingZeros(directModel.getGreenMask());
+        int blueShift = Integer.numberOfTrailingZeros(directModel.getBlueMask());
+        int[] data = buffer.getData();
+        int stride = sampleModel.getScanlineStride();
+        int origin = buffer.getOffset()
+                - raster.getSampleModelTranslateY() * stride
+                - raster.getSampleModelTranslateX();
+
+        for (int j = 0; j < height; j++) {
+            int source = origin + j * stride;
+            int target = j * width;
+            for (int i = 0; i < width; i++) {
+                int pixel = data[source + i];
+                red[target + i] = (byte) (pixel >>> redShift);
+                green[target + i] = (byte) (pixel >>> greenShift);
+                blue[target + i] = (byte) (pixel >>> blueShift);
+            }
+        }
+        return true;
+    }
+
+    private boolean copyInterleavedBytes(BufferedImage image) {
+        Raster raster = image.getRaster();
+        ColorModel colorModel = image.getColorModel();
+        if (!(raster.getDataBuffer() instanceof DataBufferByte buffer)
+                || !(raster.getSampleModel() instanceof PixelInterleavedSampleModel sampleModel)
+                || !(colorModel instanceof ComponentColorModel)
+                || !colorModel.getColorSpace().isCS_sRGB()
+                || colorModel.isAlphaPremultiplied()
+                || colorModel.getTransferType() != DataBuffer.TYPE_BYTE
+                || sampleModel.getNumBands() < 3
+                || !hasByteComponents(colorModel)) {
+            return false;
+        }
+
+        byte[] data = buffer.getData();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int pixelStride = sampleModel.getPixelStride();
+        int stride = sampleModel.getScanlineStride();
+        int origin = buffer.getOffset()
+                - raster.getSampleModelTranslateY() * stride
+                - raster.getSampleModelTranslateX() * pixelStride;
+
+        for (int j = 0; j < height; j++) {
+            int source = origin + j * stride;
+            int target = j * width;
+            for (int i = 0; i < width; i++) {
+                red[target + i] = data[source + bandOffsets[0]];
+                green[target + i] = data[source + bandOffsets[1]];
+                blue[target + i] = data[source + bandOffsets[2]];
+                source += pixelStride;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits the rows of an image from {@link RawImageReader} into the planes,
+     * reading each row from the mapping in one bulk transfer.
+     */
+    private boolean copyMappedBytes(BufferedImage image) {
+        Raster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof RawImageReader.MappedDataBuffer buffer)
+                || !(raster.getSampleModel() instanceof PixelInterleavedSampleModel sampleModel)) {
+            return false;
+        }
+
+        ByteBuffer data = buffer.pixels();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int pixelStride = sampleModel.getPixelStride();
+        int stride = sampleModel.getScanlineStride();
+        int origin = buffer.getOffset()
+                - raster.getSampleModelTranslateY() * stride
+                - raster.getSampleModelTranslateX() * pixelStride;
+
+        byte[] row = new byte[width * pixelStride];
+        for (int j = 0; j < height; j++) {
+            data.get(origin + j * stride, row, 0, row.length);
+            int target = j * width;
+            if (pixelStride == 1) {
+                // Grayscale: the row is every plane as it is
+                System.arraycopy(row, 0, red, target, width);
+                System.arraycopy(row, 0, green, target, width);
+                System.arraycopy(row, 0, blue, target, width);
+                continue;
+            }
+            for (int i = 0, source = 0; i < width; i++, source += pixelStride) {
+                red[target + i] = row[source + bandOffsets[0]];
+                green[target + i] = row[source + bandOffsets[1]];
+                blue[target + i] = row[source + bandOffsets[2]];
+            }
+        }
+        return true;
+    }
+
+    private void copyThroughColorModel(BufferedImage image) {
+        int[] row = new int[width];
+        for (int j = 0; j < height; j++) {
+            image.getRGB(0, j, width, 1, row, 0, width);
+            int target = j * width;
+            for (int i = 0; i < width; i++) {
+                int rgb = row[i];
+                red[target + i] = (byte) (rgb >> 16);
+                green[target + i] = (byte) (rgb >> 8);
+                blue[target + i] = (byte) rgb;
+            }
+        }
+    }
+
+    private static boolean hasByteComponents(ColorModel colorModel) {
+        for (int size : colorModel.getComponentSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isByteMask(int mask) {
+        return Integer.bitCount(mask) == 8 && (mask >>> Integer.numberOfTrailingZeros(mask)) == 0xFF;
+    }
+}
@@ -0,0 +1,121 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Reads a {@code .qtp} stream written by {@link ProgressiveWriter} and renders
+ * it up to a chosen depth.
+ *
+ * <p>Each level is painted over the previous one, so the image is usable after
+ * every level. A stream that ends early is not an error: whatever arrived is
+ * rendered, and blocks whose color is missing keep their parent's color. This
+ * lets a client show a coarse preview after the first few kilobytes, and lets a
+ * server produce thumbnails by truncating the file.
+ */
+public final class ProgressiveReader {
+    private ProgressiveReader() {
+    }
+
+    /**
+     * Renders everything the stream holds.
+     */
+    public static BufferedImage read(InputStream in) throws IOException {
+        return read(in, Integer.MAX_VALUE, (image, depth) -> { });
+    }
+
+    /**
+     * Renders the stream down to {@code maxDepth}, stopping early if it ends.
+     */
+    public static BufferedImage read(InputStream in, int maxDepth) throws IOException {
+        return read(in, maxDepth, (image, depth) -> { });
+    }
+
+    /**
+     * Renders the stream down to {@code maxDepth} and passes the image to the
+     * listener after every complete level, along with that level's depth. The
+     * listener receives the same image each time and must copy it to keep a
+     * snapshot.
+     */
+    public static BufferedImage read(InputStream in, int maxDepth, ObjIntConsumer<BufferedImage> listener) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[ProgressiveWriter.MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, ProgressiveWriter.MAGIC)) {
+            throw new IOException("Not a QTP file");
+        }
+        int width = data.readInt();
+        int height = data.readInt();
+        if (!QtcReader.isValidSize(width, height)) {
+            throw new IOException("Corrupt QTP header");
+        }
+
+        BufferedImage output = RasterFill.newImage(width, height);
+        int[] pixels = RasterFill.pixels(output);
+        // Blocks of the current level, four ints each: x, y, width, height
+        int[] blocks = {0, 0, width, height};
+        int levelSize = 1;
+        for (int depth = 0; levelSize > 0 && depth <= maxDepth; depth++) {
+            byte[] colors = data.readNBytes(levelSize * 3);
+            for (int i = 0; i + 3 <= colors.length; i += 3) {
+                int rgb = ((colors[i] & 0xFF) << 16) | ((colors[i + 1] & 0xFF) << 8) | (colors[i + 2] & 0xFF);
+                int block = (i / 3) * 4;
+                RasterFill.fill(pixels, width, blocks[block], blocks[block + 1], blocks[block + 2], blocks[block + 3], rgb);
+            }
+            if (colors.length < levelSize * 3) {
+                // The stream was cut inside this level
+                return output;
+            }
+
+            byte[] structure = data.readNBytes((levelSize + 7) / 8);
+            if (structure.length < (levelSize + 7) / 8) {
+                listener.accept(output, depth);
+                return output;
+            }
+            listener.accept(output, depth);
+            if (depth == maxDepth) {
+                break;
+            }
+
+            int splits = 0;
+            for (int i = 0; i < levelSize; i++) {
+                if ((structure[i >> 3] & (0x80 >>> (i & 7))) != 0) {
+                    splits++;
+                }
+            }
+            int[] next = new int[splits * 16];
+            int child = 0;
+            for (int i = 0; i < levelSize; i++) {
+                if ((structure[i >> 3] & (0x80 >>> (i & 7))) == 0) {
+                    continue;
+                }
+                int x = blocks[i * 4], y = blocks[i * 4 + 1], blockWidth = blocks[i * 4 + 2], blockHeight = blocks[i * 4 + 3];
+                if (blockWidth <= 1 || blockHeight <= 1) {
+                    throw new IOException("Corrupt QTP structure");
+                }
+                int halfWidth = blockWidth / 2;
+                int halfHeight = blockHeight / 2;
+                child = addBlock(next, child, x, y, halfWidth, halfHeight);
+                child = addBlock(next, child, x + halfWidth, y, blockWidth - halfWidth, halfHeight);
+                child = addBlock(next, child, x, y + halfHeight, halfWidth, blockHeight - halfHeight);
+                child = addBlock(next, child, x + halfWidth, y + halfHeight, blockWidth - halfWidth, blockHeight - halfHeight);
+            }
+            blocks = next;
+            levelSize = splits * 4;
+        }
+        return output;
+    }
+
+    private static int addBlock(int[] blocks, int offset, int x, int y, int width, int height) {
+        blocks[offset] = x;
+        blocks[offset + 1] = y;
+        blocks[offset + 2] = width;
+        blocks[offset + 3] = height;
+        return offset + 4;
+    }
+}
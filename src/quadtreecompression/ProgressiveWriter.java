@@ -0,0 +1,135 @@
+package quadtreecompression;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializes a {@link CompressedTree} level by level into the progressive
+ * {@code .qtp} format, so that any prefix of the file decodes to a coarser
+ * version of the image.
+ *
+ * <p>Layout (big-endian):
+ * <pre>
+ *   magic       4 bytes  "QTP1"
+ *   width       int
+ *   height      int
+ *   levels      for depth 0, 1, ... while the level has nodes:
+ *                 colors     3 bytes (R, G, B) per node of the level
+ *                 structure  ceil(nodes / 8) bytes, one bit per node,
+ *                            most significant bit first: 1 = split, 0 = leaf
+ * </pre>
+ * Nodes within a level are ordered like their parents, and the four children of
+ * a split node follow in the order top-left, top-right, bottom-left,
+ * bottom-right. Unlike {@code .qtc}, split nodes carry a color as well: the
+ * area-weighted average of their leaves. {@link ProgressiveReader} paints each
+ * level over the previous one, so a stream cut after level {@code d} shows every
+ * block at depth {@code d} in its average color.
+ */
+public final class ProgressiveWriter {
+    public static final String EXTENSION = "qtp";
+    static final byte[] MAGIC = {'Q', 'T', 'P', '1'};
+
+    private ProgressiveWriter() {
+    }
+
+    /**
+     * Writes the tree and returns the offset in bytes at which each level ends,
+     * so that a server can cut the stream at a level boundary to serve a
+     * thumbnail without building the tree again.
+     */
+    public static long[] write(CompressedTree tree, OutputStream out) throws IOException {
+        int nodeCount = tree.getNodeCount();
+        boolean[] split = new boolean[nodeCount];
+        int[] color = new int[nodeCount];
+        long[] area = new long[nodeCount];
+
+        tree.traverse(new TreeVisitor() {
+            private int node = 0;
+
+            public void visitSplit(int x, int y, int width, int height) {
+                split[node] = true;
+                area[node++] = (long) width * height;
+            }
+
+            public void visitLeaf(int x, int y, int width, int height, int rgb) {
+                color[node] = rgb;
+                area[node++] = (long) width * height;
+            }
+        });
+
+        // Link the pre-order nodes to their children and average the leaf colors into every split node
+        int[] children = new int[nodeCount * 4];
+        int end = link(0, split, color, area, children, new long[3]);
+        if (end != nodeCount) {
+            throw new IllegalStateException("Tree traversal does not match its node count");
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.write(MAGIC);
+        data.writeInt(tree.getWidth());
+        data.writeInt(tree.getHeight());
+
+        long[] levelEnds = new long[tree.getTreeDepth() + 1];
+        int[] level = {0};
+        int levelSize = 1;
+        for (int depth = 0; levelSize > 0; depth++) {
+            int splits = 0;
+            byte[] structure = new byte[(levelSize + 7) / 8];
+            for (int i = 0; i < levelSize; i++) {
+                int node = level[i];
+                data.writeByte(color[node] >> 16);
+                data.writeByte(color[node] >> 8);
+                data.writeByte(color[node]);
+                if (split[node]) {
+                    structure[i >> 3] |= (byte) (0x80 >>> (i & 7));
+                    splits++;
+                }
+            }
+            data.write(structure);
+            levelEnds[depth] = data.size();
+
+            int[] next = new int[splits * 4];
+            int child = 0;
+            for (int i = 0; i < levelSize; i++) {
+                if (split[level[i]]) {
+                    for (int k = 0; k < 4; k++) {
+                        next[child++] = children[level[i] * 4 + k];
+                    }
+                }
+            }
+            level = next;
+            levelSize = next.length;
+        }
+        data.flush();
+        return levelEnds;
+    }
+
+    /**
+     * Visits the subtree at {@code node}, records where its children start in
+     * pre-order, sets the color of split nodes to the average of their leaves,
+     * adds the subtree's channel totals to {@code totals} and returns the index
+     * just past the subtree.
+     */
+    private static int link(int node, boolean[] split, int[] color, long[] area, int[] children, long[] totals) {
+        if (!split[node]) {
+            totals[0] += ((color[node] >> 16) & 0xFF) * area[node];
+            totals[1] += ((color[node] >> 8) & 0xFF) * area[node];
+            totals[2] += (color[node] & 0xFF) * area[node];
+            return node + 1;
+        }
+
+        long[] own = new long[3];
+        int next = node + 1;
+        for (int k = 0; k < 4; k++) {
+            children[node * 4 + k] = next;
+            next = link(next, split, color, area, children, own);
+        }
+        color[node] = (int) (own[0] / area[node]) << 16 | (int) (own[1] / area[node]) << 8 | (int) (own[2] / area[node]);
+        for (int c = 0; c < 3; c++) {
+            totals[c] += own[c];
+        }
+        return next;
+    }
+}
@@ -0,0 +1,140 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads a {@code .qtc} file written by {@link QtcWriter}, or a tiled one written
+ * by {@link TiledCompressor}, and reconstructs the compressed image.
+ */
+public final class QtcReader {
+    private final byte[] structure;
+    private final byte[] colors;
+    private final int nodeCount;
+    private final int[] pixels;
+    private final int stride;
+    private int node;
+    private int leaf;
+
+    private QtcReader(byte[] structure, byte[] colors, int nodeCount, BufferedImage output) {
+        this.structure = structure;
+        this.colors = colors;
+        this.nodeCount = nodeCount;
+        this.pixels = RasterFill.pixels(output);
+        this.stride = output.getWidth();
+    }
+
+    public static BufferedImage read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[QtcWriter.MAGIC.length];
+        data.readFully(magic);
+
+        if (Arrays.equals(magic, QtcWriter.MAGIC)) {
+            int width = data.readInt();
+            int height = data.readInt();
+            if (!isValidSize(width, height)) {
+                throw new IOException("Corrupt QTC header");
+            }
+            BufferedImage output = RasterFill.newImage(width, height);
+            readTree(data, 0, 0, width, height, output);
+            return output;
+        }
+        if (Arrays.equals(magic, TiledCompressor.MAGIC)) {
+            int width = data.readInt();
+            int height = data.readInt();
+            int tileSize = data.readInt();
+            if (!isValidSize(width, height) || tileSize <= 0) {
+                throw new IOException("Corrupt QTC header");
+            }
+
+            BufferedImage output = RasterFill.newImage(width, height);
+            for (int tileY = 0; tileY < height; tileY += tileSize) {
+                for (int tileX = 0; tileX < width; tileX += tileSize) {
+                    data.readFully(magic);
+                    if (!Arrays.equals(magic, QtcWriter.MAGIC)) {
+                        throw new IOException("Corrupt QTC tile");
+                    }
+                    int tileWidth = data.readInt();
+                    int tileHeight = data.readInt();
+                    if (tileWidth != Math.min(tileSize, width - tileX) || tileHeight != Math.min(tileSize, height - tileY)) {
+                        throw new IOException("Corrupt QTC tile");
+                    }
+                    readTree(data, tileX, tileY, tileWidth, tileHeight, output);
+                }
+            }
+            return output;
+        }
+        throw new IOException("Not a QTC file");
+    }
+
+    /**
+     * Returns whether a header may describe an image of this size: positive, and
+     * with few enough pixels to fit in a single array.
+     */
+    static boolean isValidSize(int width, int height) {
+        return width > 0 && height > 0 && (long) width * height <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the largest node count a tree over a block of this size can have.
+     * Every split adds three leaves and no leaf is smaller than a pixel.
+     */
+    static long maxNodeCount(int width, int height) {
+        return ((long) width * height - 1) / 3 * 4 + 1;
+    }
+
+    private static void readTree(DataInputStream data, int x, int y, int width, int height, BufferedImage output) throws IOException {
+        int nodeCount = data.readInt();
+        if (nodeCount <= 0 || nodeCount % 4 != 1 || nodeCount > maxNodeCount(width, height)) {
+            throw new IOException("Corrupt QTC header");
+        }
+
+        // readNBytes grows its buffer as data arrives, so a truncated file cannot force a large allocation
+        int structureLength = (int) ((nodeCount + 7L) / 8);
+        int colorsLength = (int) ((3L * nodeCount + 1) / 4 * 3);
+        byte[] structure = data.readNBytes(structureLength);
+        byte[] colors = data.readNBytes(colorsLength);
+        if (structure.length < structureLength || colors.length < colorsLength) {
+            throw new EOFException("Truncated QTC file");
+        }
+
+        QtcReader reader = new QtcReader(structure, colors, nodeCount, output);
+        reader.readTree(x, y, width, height);
+        if (reader.node != nodeCount) {
+            throw new IOException("Corrupt QTC structure");
+        }
+    }
+
+    private void readTree(int x, int y, int width, int height) throws IOException {
+        if (node >= nodeCount) {
+            throw new IOException("Corrupt QTC structure");
+        }
+        boolean split = (structure[node >> 3] & (0x80 >>> (node & 7))) != 0;
+        node++;
+
+        if (!split) {
+            if (leaf + 3 > colors.length) {
+                throw new IOException("Corrupt QTC structure");
+            }
+            int rgb = ((colors[leaf] & 0xFF) << 16) | ((colors[leaf + 1] & 0xFF) << 8) | (colors[leaf + 2] & 0xFF);
+            leaf += 3;
+            RasterFill.fill(pixels, stride, x, y, width, height, rgb);
+            return;
+        }
+        if (width <= 1 || height <= 1) {
+            throw new IOException("Corrupt QTC structure");
+        }
+
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        readTree(x, y, halfWidth, halfHeight);
+        readTree(x + halfWidth, y, width - halfWidth, halfHeight);
+        readTree(x, y + halfHeight, halfWidth, height - halfHeight);
+        readTree(x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight);
+    }
+}
@@ -0,0 +1,74 @@
+package quadtreecompression;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializes a {@link CompressedTree} into the native {@code .qtc} format.
+ *
+ * <p>Layout (big-endian):
+ * <pre>
+ *   magic       4 bytes  "QTC1"
+ *   width       int
+ *   height      int
+ *   node count  int
+ *   structure   ceil(node count / 8) bytes, one bit per node in pre-order,
+ *               most significant bit first: 1 = split, 0 = leaf
+ *   colors      3 bytes (R, G, B) per leaf, in pre-order
+ * </pre>
+ * Block geometry is not stored; the reader derives it by splitting blocks the
+ * same way the tree builders do. The file size therefore depends only on the
+ * number of leaves, not on the number of pixels.
+ */
+public final class QtcWriter {
+    public static final String EXTENSION = "qtc";
+    static final byte[] MAGIC = {'Q', 'T', 'C', '1'};
+
+    private QtcWriter() {
+    }
+
+    /**
+     * Returns the size in bytes of the file written for a tree with the given
+     * number of nodes. Every split node has four children, so the leaf count
+     * follows from the node count.
+     */
+    public static long encodedSize(int nodeCount) {
+        long leafCount = (3L * nodeCount + 1) / 4;
+        return MAGIC.length + 3 * Integer.BYTES + (nodeCount + 7L) / 8 + 3 * leafCount;
+    }
+
+    public static void write(CompressedTree tree, OutputStream out) throws IOException {
+        int nodeCount = tree.getNodeCount();
+        int leafCount = (3 * nodeCount + 1) / 4;
+        byte[] structure = new byte[(nodeCount + 7) / 8];
+        byte[] colors = new byte[leafCount * 3];
+
+        tree.traverse(new TreeVisitor() {
+            private int node = 0;
+            private int leaf = 0;
+
+            public void visitSplit(int x, int y, int width, int height) {
+                structure[node >> 3] |= (byte) (0x80 >>> (node & 7));
+                node++;
+            }
+
+            public void visitLeaf(int x, int y, int width, int height, int rgb) {
+                colors[leaf++] = (byte) (rgb >> 16);
+                colors[leaf++] = (byte) (rgb >> 8);
+                colors[leaf++] = (byte) rgb;
+                node++;
+            }
+        });
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.write(MAGIC);
+        data.writeInt(tree.getWidth());
+        data.writeInt(tree.getHeight());
+        data.writeInt(nodeCount);
+        data.write(structure);
+        data.write(colors);
+        data.flush();
+    }
+}
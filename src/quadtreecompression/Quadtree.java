@@ -1,12 +1,17 @@
 package quadtreecompression;
 
-import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-
-public class Quadtree {
-    private class Node {
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+public class Quadtree implements CompressedTree {
+    private static class Node {
         int x, y, width, height;
-        Color averageColor;
+        int averageColor;
         Node topLeft, topRight, bottomLeft, bottomRight;
         boolean isLeaf;
 
@@ -18,11 +23,117 @@ public class Quadtree {
         }
     }
 
+    private class BuildTask extends RecursiveTask<Node> {
+        private final int x, y, width, height, depth;
+
+        BuildTask(int x, int y, int width, int height, int depth) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Node compute() {
+            if (width * height <= sequentialCutoff) {
+                return buildTree(x, y, width, height, depth);
+            }
+
+            Node node = createNode(x, y, width, height, depth);
+            if (node.isLeaf) {
+                return node;
+            }
+
+            int halfWidth = Math.max(1, (width / 2));
+            int halfHeight = Math.max(1, (height / 2));
+            BuildTask topLeft = new BuildTask(x, y, halfWidth, halfHeight, depth + 1);
+            BuildTask topRight = width > halfWidth ? new BuildTask(x + halfWidth, y, width - halfWidth, halfHeight, depth + 1) : null;
+            BuildTask bottomLeft = height > halfHeight ? new BuildTask(x, y + halfHeight, halfWidth, height - halfHeight, depth + 1) : null;
+            BuildTask bottomRight = width > halfWidth && height > halfHeight
+                    ? new BuildTask(x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight, depth + 1)
+                    : null;
+
+            if (topRight != null) {
+                topRight.fork();
+            }
+            if (bottomLeft != null) {
+                bottomLeft.fork();
+            }
+            if (bottomRight != null) {
+                bottomRight.fork();
+            }
+            node.topLeft = topLeft.compute();
+            node.topRight = topRight != null ? topRight.join() : null;
+            node.bottomLeft = bottomLeft != null ? bottomLeft.join() : null;
+            node.bottomRight = bottomRight != null ? bottomRight.join() : null;
+            return node;
+        }
+    }
+
+    private class RenderTask extends RecursiveAction {
+        private final Node node;
+        private final int[] pixels;
+
+        RenderTask(Node node, int[] pixels) {
+            this.node = node;
+            this.pixels = pixels;
+        }
+
+        @Override
+        protected void compute() {
+            if (node == null || node.isLeaf || node.width * node.height <= sequentialCutoff) {
+                drawTree(node, pixels);
+                return;
+            }
+
+            // Sibling subtrees cover disjoint blocks, so they write disjoint parts of the array
+            invokeAll(new RenderTask(node.topLeft, pixels), new RenderTask(node.topRight, pixels),
+                    new RenderTask(node.bottomLeft, pixels), new RenderTask(node.bottomRight, pixels));
+        }
+    }
+
+    private class LevelTask extends RecursiveAction {
+        private final int[] blocks;
+        private final int from, to;
+        private final double[] errors;
+
+        LevelTask(int[] blocks, int from, int to, double[] errors) {
+            this.blocks = blocks;
+            this.from = from;
+            this.to = to;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEVEL_BATCH_SIZE) {
+                calculator.calculateErrors(blocks, from, to, errors);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new LevelTask(blocks, from, middle, errors), new LevelTask(blocks, middle, to, errors));
+        }
+    }
+
+    private record Candidate(Node node, double error, int depth) {
+    }
+
+    public static final int DEFAULT_SEQUENTIAL_CUTOFF = 128 * 128;
+    // Blocks per task when a parallel level-by-level build splits a level
+    private static final int LEVEL_BATCH_SIZE = 256;
+
     private Node root;
     private final BufferedImage image;
     private final double errorThreshold;
     private final int minBlockSize;
     private final ErrorCalculationMethod method;
+    private ErrorCalculator calculator;
+    private CompressionMetrics metrics;
+    private int parallelism = 1;
+    private int sequentialCutoff = DEFAULT_SEQUENTIAL_CUTOFF;
+    private boolean thresholdBuilt;
+    private boolean ownsCalculator;
 
     public Quadtree(BufferedImage image, double errorThreshold, int minBlockSize, ErrorCalculationMethod method) {
         this.image = image;
@@ -31,232 +142,455 @@ public class Quadtree {
         this.method = method;
     }
 
-    private Node buildTree(int x, int y, int width, int height) {
+    /**
+     * Creates a tree that evaluates blocks with an existing, possibly shared, calculator.
+     */
+    Quadtree(BufferedImage image, double errorThreshold, int minBlockSize, ErrorCalculator calculator) {
+        this(image, errorThreshold, minBlockSize, calculator.getMethod());
+        this.calculator = calculator;
+    }
+
+    /**
+     * Sets how many worker threads {@link #build()} and {@link #getCompressedImage()}
+     * may use. A value of 1 keeps both on the calling thread.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the block area at or below which a parallel build or render stops
+     * forking and handles the remaining subtree sequentially.
+     */
+    public void setSequentialCutoff(int blockArea) {
+        if (blockArea < 1) {
+            throw new IllegalArgumentException("Sequential cutoff must be at least 1");
+        }
+        this.sequentialCutoff = blockArea;
+    }
+
+    /**
+     * Collects pixel reads, error evaluations, nodes per depth and build and
+     * render times into the given metrics. Must be set before {@link #build()}.
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private void prepareCalculator() {
+        prepareCalculator(null);
+    }
+
+    private void prepareCalculator(PixelBuffer pixels) {
+        if (calculator == null) {
+            calculator = new ErrorCalculator(pixels != null ? pixels : PixelBuffer.fromImage(image), method, metrics);
+            ownsCalculator = true;
+        } else {
+            calculator = calculator.withMetrics(metrics);
+        }
+    }
+
+    private Node createNode(int x, int y, int width, int height, int depth) {
         Node node = new Node(x, y, width, height);
-        double error = calculateError(x, y, width, height);
+        double error = calculator.calculateError(x, y, width, height);
 
         if (error < errorThreshold || width * height <= minBlockSize || width <= 1 || height <= 1) {
             node.isLeaf = true;
-            node.averageColor = calculateAverageColor(x, y, width, height);
-        } else {
+            node.averageColor = calculator.calculateAverageColor(x, y, width, height);
+        }
+        if (metrics != null) {
+            metrics.recordNode(depth, node.isLeaf);
+        }
+        return node;
+    }
+
+    private Node buildTree(int x, int y, int width, int height, int depth) {
+        Node node = createNode(x, y, width, height, depth);
+
+        if (!node.isLeaf) {
             int halfWidth = Math.max(1, (width / 2));
             int halfHeight = Math.max(1, (height / 2));
-            node.topLeft = buildTree(x, y, halfWidth, halfHeight);
+            node.topLeft = buildTree(x, y, halfWidth, halfHeight, depth + 1);
             if (width > halfWidth) {
-                node.topRight = buildTree(x + halfWidth, y, width - halfWidth, halfHeight);
+                node.topRight = buildTree(x + halfWidth, y, width - halfWidth, halfHeight, depth + 1);
             }
 
             if (height > halfHeight) {
-                node.bottomLeft = buildTree(x, y + halfHeight, halfWidth, height - halfHeight);
+                node.bottomLeft = buildTree(x, y + halfHeight, halfWidth, height - halfHeight, depth + 1);
             }
 
             if (width > halfWidth && height > halfHeight) {
-                node.bottomRight = buildTree(x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight);
+                node.bottomRight = buildTree(x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight, depth + 1);
             }
         }
         return node;
     }
 
     public void build() {
-        root = buildTree(0, 0, image.getWidth(), image.getHeight());
-    }
-
-    private Color calculateAverageColor(int x, int y, int width, int height) {
-        long sumR = 0, sumG = 0, sumB = 0;
-        int totalPixels = width * height;
-        for (int i = x; i < x + width; i++) {
-            for (int j = y; j < y + height; j++) {
-                int rgb = image.getRGB(i, j);
-                Color color = new Color(rgb);
-                sumR += color.getRed();
-                sumG += color.getGreen();
-                sumB += color.getBlue();
+        build(null);
+    }
+
+    /**
+     * Builds the tree from a pixel copy the caller already made, or from the
+     * image if {@code pixels} is {@code null}.
+     */
+    void build(PixelBuffer pixels) {
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.BUILD)) {
+            prepareCalculator(pixels);
+            if (parallelism > 1) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    root = pool.invoke(new BuildTask(0, 0, image.getWidth(), image.getHeight(), 0));
+                } finally {
+                    pool.shutdown();
+                }
+            } else {
+                root = buildTree(0, 0, image.getWidth(), image.getHeight(), 0);
             }
+            thresholdBuilt = true;
         }
-        return new Color((int)(sumR/totalPixels), (int)(sumG/totalPixels), (int)(sumB/totalPixels));
     }
 
-    private double calculateError(int x, int y, int width, int height) {
-        switch (method) {
-            case ErrorCalculationMethod.VARIANCE -> {
-                return calculateErrorByVariance(x, y, width, height);
-            }
-            case ErrorCalculationMethod.MAD -> {
-                return calculateErrorByMAD(x, y, width, height);
-            }
-            case ErrorCalculationMethod.MAX_PIXEL_DIFFERENCE -> {
-                return calculateErrorByMPD(x, y, width, height);
-            }
-            case ErrorCalculationMethod.ENTROPY -> {
-                return calculateErrorByEntropy(x, y, width, height);
-            }
-            case ErrorCalculationMethod.SSIM -> {
-                return calculateErrorBySSIM(x, y, width, height);
-            }
-            default -> {
-                return 0.0;
+    /**
+     * Builds the same tree as {@link #build()} one level at a time instead of
+     * depth-first. The blocks of each level are collected into a frontier,
+     * their errors are evaluated as one batch, split across the worker threads
+     * when {@link #setParallelism(int) parallelism} allows and the level is
+     * large enough, and the blocks that split form the next frontier.
+     *
+     * <p>The build does not recurse; besides the tree it holds the current and
+     * the next frontier.
+     */
+    public void buildLevelByLevel() {
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.BUILD)) {
+            prepareCalculator();
+            ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+            try {
+                root = new Node(0, 0, image.getWidth(), image.getHeight());
+                Node[] frontier = {root};
+                // Blocks of the frontier, four ints each: x, y, width, height
+                int[] blocks = {0, 0, image.getWidth(), image.getHeight()};
+                for (int depth = 0; frontier.length > 0; depth++) {
+                    int size = frontier.length;
+                    double[] errors = new double[size];
+                    if (pool != null && size > LEVEL_BATCH_SIZE) {
+                        pool.invoke(new LevelTask(blocks, 0, size, errors));
+                    } else {
+                        calculator.calculateErrors(blocks, 0, size, errors);
+                    }
+
+                    int splits = 0;
+                    for (int i = 0; i < size; i++) {
+                        Node node = frontier[i];
+                        if (errors[i] < errorThreshold || node.width * node.height <= minBlockSize
+                                || node.width <= 1 || node.height <= 1) {
+                            node.isLeaf = true;
+                            node.averageColor = calculator.calculateAverageColor(node.x, node.y, node.width, node.height);
+                        } else {
+                            splits++;
+                        }
+                        if (metrics != null) {
+                            metrics.recordNode(depth, node.isLeaf);
+                        }
+                    }
+
+                    Node[] next = new Node[splits * 4];
+                    int[] nextBlocks = new int[splits * 16];
+                    int child = 0;
+                    for (Node node : frontier) {
+                        if (node.isLeaf) {
+                            continue;
+                        }
+                        int halfWidth = node.width / 2;
+                        int halfHeight = node.height / 2;
+                        node.topLeft = addChild(next, nextBlocks, child++, node.x, node.y, halfWidth, halfHeight);
+                        node.topRight = addChild(next, nextBlocks, child++, node.x + halfWidth, node.y,
+                                node.width - halfWidth, halfHeight);
+                        node.bottomLeft = addChild(next, nextBlocks, child++, node.x, node.y + halfHeight,
+                                halfWidth, node.height - halfHeight);
+                        node.bottomRight = addChild(next, nextBlocks, child++, node.x + halfWidth, node.y + halfHeight,
+                                node.width - halfWidth, node.height - halfHeight);
+                    }
+                    frontier = next;
+                    blocks = nextBlocks;
+                }
+            } finally {
+                if (pool != null) {
+                    pool.shutdown();
+                }
             }
+            thresholdBuilt = true;
         }
     }
 
-    private double calculateErrorByVariance(int x, int y, int width, int height) {
-        Color avgColor = calculateAverageColor(x, y, width, height);
-        double avgR = avgColor.getRed(), avgG = avgColor.getGreen(), avgB = avgColor.getBlue();
+    private static Node addChild(Node[] frontier, int[] blocks, int index, int x, int y, int width, int height) {
+        Node node = new Node(x, y, width, height);
+        frontier[index] = node;
+        blocks[index * 4] = x;
+        blocks[index * 4 + 1] = y;
+        blocks[index * 4 + 2] = width;
+        blocks[index * 4 + 3] = height;
+        return node;
+    }
 
-        double sumR = 0.0, sumG = 0.0, sumB = 0.0;
-        int totalPixel = width * height;
+    /**
+     * Builds the tree for a frame that follows {@code previous} in a sequence.
+     * Every subtree of the previous tree whose block has no changed pixel is
+     * reused as is, and only the blocks that changed are evaluated again, so the
+     * tree itself costs time in proportion to the amount of change. The pixel
+     * copy and the indices of this frame are still made from scratch, in time
+     * linear in the number of pixels, since {@code previous} keeps its own.
+     * {@link SequenceCompressor} avoids that cost by handing the indices from
+     * one frame to the next. The result is the tree {@link #build()} would
+     * produce for this frame.
+     *
+     * <p>Unchanged nodes are shared between the two trees rather than copied.
+     *
+     * @param previous tree of the preceding frame, built with the same size,
+     *        threshold, minimum block size and method by {@link #build()} or this method
+     */
+    public void buildFrom(Quadtree previous) {
+        if (previous.calculator == null) {
+            throw new IllegalArgumentException("The previous frame has not been built, or its indices were handed on");
+        }
+        PixelBuffer pixels = PixelBuffer.fromImage(image);
+        buildFrom(previous, pixels, ChangeMask.between(previous.calculator.getPixels(), pixels), false);
+    }
 
-        for (int i = x; i < x + width; i++) {
-            for (int j = y; j < y + height; j++) {
-                int rgb = image.getRGB(i, j);
-                Color color = new Color(rgb);
-                double valueR = color.getRed() - avgR;
-                double valueG = color.getGreen() - avgG;
-                double valueB = color.getBlue() - avgB;
-                sumR += valueR * valueR;
-                sumG += valueG * valueG;
-                sumB += valueB * valueB;
+    /**
+     * Builds the tree from {@code previous}, treating the blocks marked in
+     * {@code changes} as the only ones whose pixels may differ.
+     *
+     * <p>With {@code takeIndices}, a pixel copy and indices that {@code previous}
+     * owns are moved to this tree and patched over the bounding box of the
+     * change, so the frame costs time in proportion to the change rather than
+     * the resolution. {@code previous} can still be drawn, queried and encoded
+     * afterwards, but no longer serves as the base of {@link #buildFrom(Quadtree)},
+     * and {@link #update} on it starts from fresh indices.
+     *
+     * @param pixels this frame's pixels, used when the indices are built from scratch
+     */
+    void buildFrom(Quadtree previous, PixelBuffer pixels, ChangeMask changes, boolean takeIndices) {
+        if (!previous.thresholdBuilt || previous.getWidth() != getWidth() || previous.getHeight() != getHeight()
+                || previous.errorThreshold != errorThreshold || previous.minBlockSize != minBlockSize || previous.method != method) {
+            throw new IllegalArgumentException("The previous frame was built with a different size or different parameters");
+        }
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.BUILD)) {
+            boolean takeOver = takeIndices && previous.ownsCalculator;
+            if (changes.isEmpty()) {
+                // Identical pixels give identical indices, so not even the calculator needs rebuilding
+                calculator = previous.calculator.withMetrics(metrics);
+                ownsCalculator = takeOver;
+                root = previous.root;
+            } else {
+                if (takeOver) {
+                    Rectangle bounds = changes.bounds();
+                    calculator = previous.calculator.withMetrics(metrics);
+                    calculator.update(image, bounds.x, bounds.y, bounds.width, bounds.height);
+                    ownsCalculator = true;
+                } else {
+                    prepareCalculator(pixels);
+                }
+                root = rebuildTree(previous.root, changes, 0, null);
+            }
+            if (takeOver) {
+                previous.calculator = null;
+                previous.ownsCalculator = false;
             }
+            thresholdBuilt = true;
         }
-
-        double varR = sumR / totalPixel;
-        double varG = sumG / totalPixel;
-        double varB = sumB / totalPixel;
-
-        return (varR + varG + varB) / 3.0;
     }
 
-    private double calculateErrorByMAD(int x, int y, int width, int height) {
-        Color avgColor = calculateAverageColor(x, y, width, height);
-        double avgR = avgColor.getRed(), avgG = avgColor.getGreen(), avgB = avgColor.getBlue();
+    /**
+     * Brings the tree up to date after the pixels of the source image inside
+     * {@code dirty} were edited in place. Only the nodes whose blocks intersect
+     * the region are evaluated again; they split or merge as their new error
+     * requires, and every other subtree is kept. The pixel indices are patched
+     * rather than rebuilt, so a small edit costs time proportional to its area
+     * and the depth of the tree, not to the image size. The result is the tree
+     * {@link #build()} would produce for the edited image.
+     *
+     * @return the part of the compressed image that may have changed, empty if none
+     */
+    public Rectangle update(Rectangle dirty) {
+        return update(dirty, null);
+    }
 
-        double valueR = 0.0, valueG = 0.0, valueB = 0.0;
-        int totalPixel = width * height;
+    /**
+     * Updates the tree like {@link #update(Rectangle)} and redraws the part of
+     * the compressed image that changed into {@code compressed}, an image
+     * previously returned by {@link #getCompressedImage()}.
+     */
+    public Rectangle update(Rectangle dirty, BufferedImage compressed) {
+        if (!thresholdBuilt) {
+            throw new IllegalStateException("update requires a tree built with build() or buildFrom()");
+        }
+        if (compressed != null && (compressed.getType() != BufferedImage.TYPE_INT_RGB
+                || compressed.getWidth() != image.getWidth() || compressed.getHeight() != image.getHeight())) {
+            throw new IllegalArgumentException("The compressed image must come from getCompressedImage()");
+        }
+        Rectangle region = dirty.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (region.isEmpty()) {
+            return new Rectangle();
+        }
 
-        for (int i = x; i < x + width; i++) {
-            for (int j = y; j < y + height; j++) {
-                int rgb = image.getRGB(i, j);
-                Color color = new Color(rgb);
-                valueR += Math.abs(color.getRed() - avgR);
-                valueG += Math.abs(color.getGreen() - avgG);
-                valueB += Math.abs(color.getBlue() - avgB);
+        Rectangle changed = new Rectangle(0, 0, -1, -1);
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.BUILD)) {
+            if (ownsCalculator) {
+                calculator = calculator.withMetrics(metrics);
+                calculator.update(image, region.x, region.y, region.width, region.height);
+            } else {
+                // The indices may be shared with a cache or another frame, so they must not be patched in place
+                calculator = new ErrorCalculator(PixelBuffer.fromImage(image), method, metrics);
+                ownsCalculator = true;
             }
+            // Nodes are replaced rather than modified, since they may be shared with another frame's tree
+            root = rebuildTree(root, ChangeMask.covering(image.getWidth(), image.getHeight(),
+                    region.x, region.y, region.width, region.height), 0, changed);
+        }
+        if (changed.isEmpty()) {
+            return new Rectangle();
         }
 
-        double madR = valueR / totalPixel;
-        double madG = valueG / totalPixel;
-        double madB = valueB / totalPixel;
-
-        return (madR + madG + madB) / 3.0;
+        if (compressed != null) {
+            try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.RENDER)) {
+                drawTree(root, RasterFill.pixels(compressed), changed);
+            }
+        }
+        return changed;
     }
 
-    private double calculateErrorByMPD(int x, int y, int width, int height) {
-        int maxR = 0, maxG = 0, maxB = 0;
-        int minR = 255, minG = 255, minB = 255;
-
-        for (int i = x; i < x + width; i++) {
-            for (int j = y; j < y + height; j++) {
-                int rgb = image.getRGB(i, j);
-                Color color = new Color(rgb);
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
+    /**
+     * Evaluates again every node of the {@code previous} subtree that overlaps
+     * a change and reuses the rest.
+     *
+     * @param changed receives the blocks whose color may differ, or {@code null}
+     */
+    private Node rebuildTree(Node previous, ChangeMask changes, int depth, Rectangle changed) {
+        if (!changes.intersects(previous.x, previous.y, previous.width, previous.height)) {
+            return previous;
+        }
 
-                if (r > maxR) {
-                    maxR = r;
-                }
-                if (g > maxG) {
-                    maxG = g;
-                }
-                if (b > maxB) {
-                    maxB = b;
-                }
-                if (r < minR) {
-                    minR = r;
-                }
-                if (g < minG) {
-                    minG = g;
-                }
-                if (b < minB) {
-                    minB = b;
-                }
+        Node node = createNode(previous.x, previous.y, previous.width, previous.height, depth);
+        if (node.isLeaf) {
+            if (changed != null) {
+                changed.add(new Rectangle(node.x, node.y, node.width, node.height));
             }
+            return node;
         }
 
-        double diffR = maxR - minR;
-        double diffG = maxG - minG;
-        double diffB = maxB - minB;
-
-        return (diffR + diffG + diffB) / 3.0;
-    }
-
-    private double calculateErrorByEntropy(int x, int y, int width, int height) {
-        int[] histogram = new int[256];
-        for (int i = x; i < x + width; i++) {
-            for (int j = y; j < y + height; j++) {
-                int rgb = image.getRGB(i, j);
-                Color color = new Color(rgb);
-                int intensity = (color.getRed() + color.getGreen() + color.getBlue()) / 3;
-                histogram[intensity]++;
+        int x = node.x, y = node.y, width = node.width, height = node.height;
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        if (previous.isLeaf) {
+            // The previous tree never split this block, so there is nothing below it to reuse
+            node.topLeft = buildTree(x, y, halfWidth, halfHeight, depth + 1);
+            node.topRight = buildTree(x + halfWidth, y, width - halfWidth, halfHeight, depth + 1);
+            node.bottomLeft = buildTree(x, y + halfHeight, halfWidth, height - halfHeight, depth + 1);
+            node.bottomRight = buildTree(x + halfWidth, y + halfHeight, width - halfWidth, height - halfHeight, depth + 1);
+            if (changed != null) {
+                changed.add(new Rectangle(x, y, width, height));
             }
+        } else {
+            node.topLeft = rebuildTree(previous.topLeft, changes, depth + 1, changed);
+            node.topRight = rebuildTree(previous.topRight, changes, depth + 1, changed);
+            node.bottomLeft = rebuildTree(previous.bottomLeft, changes, depth + 1, changed);
+            node.bottomRight = rebuildTree(previous.bottomRight, changes, depth + 1, changed);
         }
+        return node;
+    }
 
-        int totalPixels = width * height;
-        double entropy = 0.0;
-        for (int value : histogram) {
-            if (value > 0) {
-                double probability = (double) value / totalPixels;
-                entropy += -probability * (Math.log(probability) / Math.log(2));
-            }
+    /**
+     * Builds the tree best-first: starting from the whole image as a single leaf,
+     * the leaf with the largest error is split next until one of the limits is
+     * reached. The error threshold given to the constructor is not used.
+     *
+     * <p>With only the error floor limiting it, the result is the tree
+     * {@link #build()} produces for a threshold equal to the floor. The leaf and
+     * byte limits instead stop the build as soon as one more split would exceed
+     * them, leaving the most detail where the error is largest. The byte limit is
+     * measured against the {@code .qtc} encoding (see {@link QtcWriter#encodedSize(int)}),
+     * so a compression target for that format is met in a single build.
+     *
+     * @param maxLeaves largest number of leaves, or {@link Integer#MAX_VALUE} for no limit
+     * @param maxEncodedBytes largest {@code .qtc} file size, or {@link Long#MAX_VALUE} for no limit
+     * @param errorFloor leaves with an error below this are never split
+     */
+    public void buildBestFirst(int maxLeaves, long maxEncodedBytes, double errorFloor) {
+        if (maxLeaves < 1) {
+            throw new IllegalArgumentException("Max leaves must be at least 1");
         }
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.BUILD)) {
+            prepareCalculator();
+            thresholdBuilt = false;
+
+            PriorityQueue<Candidate> queue = new PriorityQueue<>(Comparator.comparingDouble(Candidate::error).reversed());
+            root = new Node(0, 0, image.getWidth(), image.getHeight());
+            offer(queue, root, 0, errorFloor);
+
+            int leaves = 1;
+            int nodes = 1;
+            while (!queue.isEmpty()) {
+                // Every split adds the same four nodes and three leaves, so once one split
+                // no longer fits none will and the build is done
+                if (leaves + 3 > maxLeaves || QtcWriter.encodedSize(nodes + 4) > maxEncodedBytes) {
+                    break;
+                }
+                Candidate worst = queue.poll();
+                Node node = worst.node();
+                node.isLeaf = false;
+                int halfWidth = node.width / 2;
+                int halfHeight = node.height / 2;
+                node.topLeft = new Node(node.x, node.y, halfWidth, halfHeight);
+                node.topRight = new Node(node.x + halfWidth, node.y, node.width - halfWidth, halfHeight);
+                node.bottomLeft = new Node(node.x, node.y + halfHeight, halfWidth, node.height - halfHeight);
+                node.bottomRight = new Node(node.x + halfWidth, node.y + halfHeight, node.width - halfWidth, node.height - halfHeight);
+                offer(queue, node.topLeft, worst.depth() + 1, errorFloor);
+                offer(queue, node.topRight, worst.depth() + 1, errorFloor);
+                offer(queue, node.bottomLeft, worst.depth() + 1, errorFloor);
+                offer(queue, node.bottomRight, worst.depth() + 1, errorFloor);
+                leaves += 3;
+                nodes += 4;
+            }
 
-        return entropy;
-    }
-
-    private double calculateErrorBySSIM(int x, int y, int width, int height) {
-        final double K1 = 0.01;
-        final double K2 = 0.03;
-        final double L = 255;
-        final double C1 = (K1 * L) * (K1 * L);
-        final double C2 = (K2 * L) * (K2 * L);
-
-        int count = width * height;
-        double sumR = 0.0, sumG = 0.0, sumB = 0.0;
-        double sumSquaredR = 0.0, sumSquaredG = 0.0, sumSquaredB = 0.0;
-
-        for (int i = x; i < x + width; i++) {
-            for (int j = y; j < y + height; j++) {
-                int rgb = image.getRGB(i, j);
-                Color color = new Color(rgb);
-                double r = color.getRed();
-                double g = color.getGreen();
-                double b = color.getBlue();
-                sumR += r;
-                sumG += g;
-                sumB += b;
-                sumSquaredR += r * r;
-                sumSquaredG += g * g;
-                sumSquaredB += b * b;
+            if (metrics != null) {
+                recordNodes(root, 0);
             }
         }
+    }
 
-        double muR = sumR / count;
-        double muG = sumG / count;
-        double muB = sumB / count;
-
-        double varR = (sumSquaredR / count) - (muR * muR);
-        double varG = (sumSquaredG / count) - (muG * muG);
-        double varB = (sumSquaredB / count) - (muB * muB);
+    /**
+     * Evaluates a new leaf and queues it if it may still be split.
+     */
+    private void offer(PriorityQueue<Candidate> queue, Node node, int depth, double errorFloor) {
+        double error = calculator.calculateError(node.x, node.y, node.width, node.height);
+        node.isLeaf = true;
+        node.averageColor = calculator.calculateAverageColor(node.x, node.y, node.width, node.height);
+        boolean splittable = error >= errorFloor && node.width * node.height > minBlockSize && node.width > 1 && node.height > 1;
+        if (splittable) {
+            queue.add(new Candidate(node, error, depth));
+        }
+    }
 
-        double ssimR = C2 / (varR + C2);
-        double ssimG = C2 / (varG + C2);
-        double ssimB = C2 / (varB + C2);
+    private void recordNodes(Node node, int depth) {
+        metrics.recordNode(depth, node.isLeaf);
+        if (!node.isLeaf) {
+            recordNodes(node.topLeft, depth + 1);
+            recordNodes(node.topRight, depth + 1);
+            recordNodes(node.bottomLeft, depth + 1);
+            recordNodes(node.bottomRight, depth + 1);
+        }
+    }
 
-        double wR = 0.299;
-        double wG = 0.587;
-        double wB = 0.114;
+    public int getWidth() {
+        return image.getWidth();
+    }
 
-        return 1.0 - (wR * ssimR + wG * ssimG + wB * ssimB); // Invert for the error
+    public int getHeight() {
+        return image.getHeight();
     }
 
     public int getTreeDepth() {
@@ -300,26 +634,136 @@ public class Quadtree {
     }
 
     public BufferedImage getCompressedImage() {
-        BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-        drawTree(root, output);
-        return output;
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.RENDER)) {
+            BufferedImage output = RasterFill.newImage(image.getWidth(), image.getHeight());
+            int[] pixels = RasterFill.pixels(output);
+            if (parallelism > 1 && root != null) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    pool.invoke(new RenderTask(root, pixels));
+                } finally {
+                    pool.shutdown();
+                }
+            } else {
+                drawTree(root, pixels);
+            }
+            return output;
+        }
     }
 
-    private void drawTree(Node node, BufferedImage output) {
+    private void drawTree(Node node, int[] pixels) {
         if (node == null) {
             return;
         }
         if (node.isLeaf) {
-            for (int i = node.x; i < node.x + node.width; i++) {
-                for (int j = node.y; j < node.y + node.height; j++) {
-                    output.setRGB(i, j, node.averageColor.getRGB());
-                }
-            }
+            RasterFill.fill(pixels, image.getWidth(), node.x, node.y, node.width, node.height, node.averageColor);
+            return;
+        }
+        drawTree(node.topLeft, pixels);
+        drawTree(node.topRight, pixels);
+        drawTree(node.bottomLeft, pixels);
+        drawTree(node.bottomRight, pixels);
+    }
+
+    /**
+     * Draws only the parts of the leaves that fall inside {@code area}.
+     */
+    private void drawTree(Node node, int[] pixels, Rectangle area) {
+        if (node == null || !area.intersects(node.x, node.y, node.width, node.height)) {
+            return;
+        }
+        if (node.isLeaf) {
+            int left = Math.max(node.x, area.x);
+            int top = Math.max(node.y, area.y);
+            int right = Math.min(node.x + node.width, area.x + area.width);
+            int bottom = Math.min(node.y + node.height, area.y + area.height);
+            RasterFill.fill(pixels, image.getWidth(), left, top, right - left, bottom - top, node.averageColor);
+            return;
+        }
+        drawTree(node.topLeft, pixels, area);
+        drawTree(node.topRight, pixels, area);
+        drawTree(node.bottomLeft, pixels, area);
+        drawTree(node.bottomRight, pixels, area);
+    }
+
+    public void traverse(TreeVisitor visitor) {
+        traverse(root, visitor);
+    }
+
+    public int getColorAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= image.getWidth() || y >= image.getHeight()) {
+            throw new IllegalArgumentException("The pixel lies outside the image");
+        }
+        Node node = builtRoot();
+        while (!node.isLeaf) {
+            boolean right = x >= node.x + node.width / 2;
+            boolean bottom = y >= node.y + node.height / 2;
+            node = bottom ? (right ? node.bottomRight : node.bottomLeft) : (right ? node.topRight : node.topLeft);
+        }
+        return node.averageColor;
+    }
+
+    public void traverse(Rectangle area, TreeVisitor visitor) {
+        traverse(builtRoot(), area, visitor);
+    }
+
+    private void traverse(Node node, Rectangle area, TreeVisitor visitor) {
+        if (node == null || !area.intersects(node.x, node.y, node.width, node.height)) {
+            return;
+        }
+        if (node.isLeaf) {
+            visitor.visitLeaf(node.x, node.y, node.width, node.height, node.averageColor);
+            return;
+        }
+        visitor.visitSplit(node.x, node.y, node.width, node.height);
+        traverse(node.topLeft, area, visitor);
+        traverse(node.topRight, area, visitor);
+        traverse(node.bottomLeft, area, visitor);
+        traverse(node.bottomRight, area, visitor);
+    }
+
+    public BufferedImage render(Rectangle area, int outputWidth, int outputHeight) {
+        Viewport viewport = new Viewport(image.getWidth(), image.getHeight(), area, outputWidth, outputHeight);
+        Node start = builtRoot();
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.RENDER)) {
+            drawTree(start, viewport);
+        }
+        return viewport.getImage();
+    }
+
+    private void drawTree(Node node, Viewport viewport) {
+        if (node == null || !viewport.samples(node.x, node.y, node.width, node.height)) {
+            return;
+        }
+        if (node.isLeaf) {
+            viewport.fill(node.x, node.y, node.width, node.height, node.averageColor);
+            return;
+        }
+        drawTree(node.topLeft, viewport);
+        drawTree(node.topRight, viewport);
+        drawTree(node.bottomLeft, viewport);
+        drawTree(node.bottomRight, viewport);
+    }
+
+    private Node builtRoot() {
+        if (root == null) {
+            throw new IllegalStateException("The tree has not been built");
+        }
+        return root;
+    }
+
+    private void traverse(Node node, TreeVisitor visitor) {
+        if (node == null) {
+            return;
+        }
+        if (node.isLeaf) {
+            visitor.visitLeaf(node.x, node.y, node.width, node.height, node.averageColor);
             return;
         }
-        drawTree(node.topLeft, output);
-        drawTree(node.topRight, output);
-        drawTree(node.bottomLeft, output);
-        drawTree(node.bottomRight, output);
+        visitor.visitSplit(node.x, node.y, node.width, node.height);
+        traverse(node.topLeft, visitor);
+        traverse(node.topRight, visitor);
+        traverse(node.bottomLeft, visitor);
+        traverse(node.bottomRight, visitor);
     }
 }
@@ -0,0 +1,132 @@
+package quadtreecompression;
+
+import java.util.Arrays;
+
+/**
+ * The blocks a quadtree can produce at each depth of a width × height image.
+ *
+ * <p>Splitting always halves a side as {@code w / 2} and {@code w - w / 2}, so the
+ * column boundaries at depth {@code d} depend only on the image width and
+ * {@code d}, and likewise for rows. Every node at depth {@code d} is therefore
+ * one cell of a fixed {@code 2^d × 2^d} grid, and cell {@code (i, j)} splits into
+ * cells {@code (2i .. 2i+1, 2j .. 2j+1)} of the next level. Per-image indices use
+ * this grid to precompute a summary for every cell down to a minimum cell area
+ * and answer any node at those depths with a single lookup.
+ */
+class QuadtreeGrid {
+    private final int levels;
+    private final int[][] columnStarts;
+    private final int[][] rowStarts;
+    private final int[][] columnCell;
+    private final int[][] rowCell;
+
+    /**
+     * @param minCellArea smallest cell area worth indexing; deeper levels are left out
+     */
+    QuadtreeGrid(int width, int height, int minCellArea) {
+        int count = 0;
+        while (count < 31 && (width >> count) >= 1 && (height >> count) >= 1
+                && (long) (width >> count) * (height >> count) >= minCellArea) {
+            count++;
+        }
+        levels = count;
+
+        columnStarts = new int[levels][];
+        rowStarts = new int[levels][];
+        columnCell = new int[levels][];
+        rowCell = new int[levels][];
+        for (int level = 0; level < levels; level++) {
+            columnStarts[level] = boundaries(width, level);
+            rowStarts[level] = boundaries(height, level);
+            columnCell[level] = cellLookup(columnStarts[level], width);
+            rowCell[level] = cellLookup(rowStarts[level], height);
+        }
+    }
+
+    private static int[] boundaries(int size, int level) {
+        int[] bounds = {0, size};
+        for (int d = 0; d < level; d++) {
+            int[] next = new int[bounds.length * 2 - 1];
+            for (int i = 0; i < bounds.length - 1; i++) {
+                next[2 * i] = bounds[i];
+                next[2 * i + 1] = bounds[i] + (bounds[i + 1] - bounds[i]) / 2;
+            }
+            next[next.length - 1] = size;
+            bounds = next;
+        }
+        return bounds;
+    }
+
+    private static int[] cellLookup(int[] bounds, int size) {
+        int[] cells = new int[size];
+        Arrays.fill(cells, -1);
+        for (int i = 0; i < bounds.length - 1; i++) {
+            cells[bounds[i]] = i;
+        }
+        return cells;
+    }
+
+    /**
+     * Returns the number of indexed levels, possibly zero for tiny images.
+     */
+    int getLevels() {
+        return levels;
+    }
+
+    /**
+     * Returns the number of cells per side at the given level.
+     */
+    int getCellsPerSide(int level) {
+        return 1 << level;
+    }
+
+    int columnStart(int level, int column) {
+        return columnStarts[level][column];
+    }
+
+    int rowStart(int level, int row) {
+        return rowStarts[level][row];
+    }
+
+    /**
+     * Returns the column of the cell containing pixel column {@code x} on the given level.
+     */
+    int columnAt(int level, int x) {
+        return cellAt(columnStarts[level], x);
+    }
+
+    /**
+     * Returns the row of the cell containing pixel row {@code y} on the given level.
+     */
+    int rowAt(int level, int y) {
+        return cellAt(rowStarts[level], y);
+    }
+
+    private static int cellAt(int[] bounds, int position) {
+        int found = Arrays.binarySearch(bounds, position);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /**
+     * Returns the level at which the block is exactly one cell, or -1 if it is
+     * not a cell of any indexed level.
+     */
+    int levelOf(int x, int y, int width, int height) {
+        for (int level = 0; level < levels; level++) {
+            int column = columnCell[level][x];
+            // A column boundary pair belongs to a single level, so the first width match decides
+            if (column >= 0 && columnStarts[level][column + 1] - x == width) {
+                int row = rowCell[level][y];
+                return row >= 0 && rowStarts[level][row + 1] - y == height ? level : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the row-major index of the cell starting at (x, y) on the given level.
+     */
+    int cellOf(int level, int x, int y) {
+        return (rowCell[level][y] << level) + columnCell[level][x];
+    }
+}
@@ -0,0 +1,33 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Paints leaf blocks straight into the backing array of a {@code TYPE_INT_RGB}
+ * image, one bulk fill per row instead of one {@code setRGB} call per pixel.
+ */
+final class RasterFill {
+    private RasterFill() {
+    }
+
+    static BufferedImage newImage(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Returns the pixel array of an image created by {@link #newImage}, laid out
+     * row-major with a stride equal to the image width.
+     */
+    static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    static void fill(int[] pixels, int stride, int x, int y, int width, int height, int rgb) {
+        for (int j = y; j < y + height; j++) {
+            int row = j * stride + x;
+            Arrays.fill(pixels, row, row + width, rgb);
+        }
+    }
+}
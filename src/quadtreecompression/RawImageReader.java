@@ -0,0 +1,283 @@
+package quadtreecompression;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads uncompressed 8-bit images by memory-mapping the file instead of
+ * decoding it.
+ *
+ * <p>Supported are binary PPM ({@code P6}), PGM ({@code P5}) and PAM
+ * ({@code P7}, depth 1 to 4, alpha ignored) with a maximum value of at most
+ * 255, and headerless interleaved RGB files ({@code .rgb}) whose name contains
+ * the size, as in {@code camera0_1920x1080.rgb}.
+ *
+ * <p>For files with a maximum value of 255, and for raw RGB files, the
+ * returned image does not hold a copy of the pixels: its raster reads
+ * straight from the mapping, and {@link PixelBuffer#fromImage} splits the
+ * mapped rows into its planes without going through the raster at all. The
+ * image is read-only, and the file must not be changed while the image is in
+ * use. Samples of files with a smaller maximum value are copied and scaled to
+ * the full 0-255 range.
+ */
+public final class RawImageReader {
+    private static final Set<String> NETPBM_EXTENSIONS = Set.of("ppm", "pgm", "pnm", "pam");
+    private static final String RAW_RGB_EXTENSION = "rgb";
+    private static final Pattern SIZE_IN_NAME = Pattern.compile("(\\d+)x(\\d+)(?!.*\\d+x\\d+)");
+
+    /**
+     * Read-only view of the pixel bytes of a mapped file.
+     */
+    static final class MappedDataBuffer extends DataBuffer {
+        private final ByteBuffer pixels;
+
+        MappedDataBuffer(ByteBuffer pixels) {
+            super(DataBuffer.TYPE_BYTE, pixels.capacity());
+            this.pixels = pixels;
+        }
+
+        /**
+         * Returns the pixel bytes, positioned at the first one. Callers must use
+         * absolute reads or a duplicate, since the buffer is shared.
+         */
+        ByteBuffer pixels() {
+            return pixels;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return pixels.get(i) & 0xFF;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            throw new UnsupportedOperationException("Memory-mapped images are read-only");
+        }
+    }
+
+    private RawImageReader() {
+    }
+
+    /**
+     * Returns whether the file's extension names a format this reader handles.
+     */
+    public static boolean canRead(Path file) {
+        String extension = extensionOf(file);
+        return NETPBM_EXTENSIONS.contains(extension) || extension.equals(RAW_RGB_EXTENSION);
+    }
+
+    /**
+     * Returns whether the file is one of the Netpbm formats, whose size is stored in the file itself.
+     */
+    static boolean isNetpbm(Path file) {
+        return NETPBM_EXTENSIONS.contains(extensionOf(file));
+    }
+
+    public static BufferedImage read(Path file) throws IOException {
+        return read(file, map(file));
+    }
+
+    /**
+     * Reads a headerless interleaved RGB file of the given size.
+     */
+    public static BufferedImage readRgb(Path file, int width, int height) throws IOException {
+        return interleaved(map(file), 0, width, height, 3, new int[] {0, 1, 2}, 255);
+    }
+
+    static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads an image from a mapping of the file, which the caller may already
+     * have made to hash its content.
+     */
+    static BufferedImage read(Path file, ByteBuffer mapped) throws IOException {
+        if (extensionOf(file).equals(RAW_RGB_EXTENSION)) {
+            Matcher matcher = SIZE_IN_NAME.matcher(file.getFileName().toString());
+            if (!matcher.find()) {
+                throw new IOException("Raw RGB file names must contain the size, e.g. frame_1920x1080.rgb");
+            }
+            return interleaved(mapped, 0, parseSize(matcher.group(1)), parseSize(matcher.group(2)), 3, new int[] {0, 1, 2}, 255);
+        }
+
+        Header header = new Header(mapped);
+        String magic = header.token();
+        return switch (magic) {
+            case "P5", "P6" -> {
+                int width = parseSize(header.token());
+                int height = parseSize(header.token());
+                int maxValue = checkMaxValue(parseSize(header.token()));
+                // Exactly one whitespace character separates the header from the pixels
+                int offset = header.position + 1;
+                yield magic.equals("P6")
+                        ? interleaved(mapped, offset, width, height, 3, new int[] {0, 1, 2}, maxValue)
+                        : interleaved(mapped, offset, width, height, 1, new int[] {0, 0, 0}, maxValue);
+            }
+            case "P7" -> readPam(mapped, header);
+            default -> throw new IOException("Not a binary PPM, PGM or PAM file");
+        };
+    }
+
+    private static BufferedImage readPam(ByteBuffer mapped, Header header) throws IOException {
+        int width = -1, height = -1, depth = -1, maxValue = 255;
+        while (true) {
+            String key = header.token();
+            if (key.equals("ENDHDR")) {
+                break;
+            }
+            switch (key) {
+                case "WIDTH" -> width = parseSize(header.token());
+                case "HEIGHT" -> height = parseSize(header.token());
+                case "DEPTH" -> depth = parseSize(header.token());
+                case "MAXVAL" -> maxValue = checkMaxValue(parseSize(header.token()));
+                case "TUPLTYPE" -> header.skipLine();
+                default -> throw new IOException("Unknown PAM header field: " + key);
+            }
+        }
+        if (width < 0 || height < 0 || depth < 0) {
+            throw new IOException("PAM header lacks WIDTH, HEIGHT or DEPTH");
+        }
+        int offset = header.position + 1;
+        return switch (depth) {
+            case 1, 2 -> interleaved(mapped, offset, width, height, depth, new int[] {0, 0, 0}, maxValue);
+            case 3, 4 -> interleaved(mapped, offset, width, height, depth, new int[] {0, 1, 2}, maxValue);
+            default -> throw new IOException("Unsupported PAM depth: " + depth);
+        };
+    }
+
+    /**
+     * Wraps pixels stored with {@code pixelStride} bytes per pixel, the red,
+     * green and blue samples at {@code bandOffsets}, in an image. Samples with
+     * the full 0-255 range are read from the mapping without copying them;
+     * samples with a smaller {@code maxValue} are copied and scaled up to it.
+     */
+    private static BufferedImage interleaved(ByteBuffer mapped, int offset, int width, int height, int pixelStride,
+            int[] bandOffsets, int maxValue) throws IOException {
+        long size = (long) width * height * pixelStride;
+        if (width < 1 || height < 1 || size > Integer.MAX_VALUE) {
+            throw new IOException("Unsupported image size: " + width + "x" + height);
+        }
+        if (offset + size > mapped.capacity()) {
+            throw new IOException("File is shorter than its " + width + "x" + height + " pixels");
+        }
+
+        ByteBuffer pixels = mapped.slice(offset, (int) size);
+        PixelInterleavedSampleModel sampleModel = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE,
+                width, height, pixelStride, width * pixelStride, bandOffsets);
+        DataBuffer buffer = maxValue == 255 ? new MappedDataBuffer(pixels) : new DataBufferByte(scaled(pixels, maxValue), (int) size);
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, buffer, null);
+        ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Copies the samples, scaling {@code 0..maxValue} to {@code 0..255}. Samples
+     * above the maximum, which the format does not allow, become 255.
+     */
+    private static byte[] scaled(ByteBuffer pixels, int maxValue) {
+        byte[] scale = new byte[256];
+        for (int v = 0; v < scale.length; v++) {
+            scale[v] = (byte) ((Math.min(v, maxValue) * 255 + maxValue / 2) / maxValue);
+        }
+        byte[] samples = new byte[pixels.capacity()];
+        pixels.get(0, samples);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = scale[samples[i] & 0xFF];
+        }
+        return samples;
+    }
+
+    private static int checkMaxValue(int maxValue) throws IOException {
+        if (maxValue < 1 || maxValue > 255) {
+            throw new IOException("Only 8-bit samples are supported, got a maximum value of " + maxValue);
+        }
+        return maxValue;
+    }
+
+    private static int parseSize(String token) throws IOException {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Expected a number in the header, got: " + token);
+        }
+    }
+
+    private static String extensionOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits a Netpbm header into whitespace-separated tokens, skipping
+     * {@code #} comments. {@link #position} ends on the character right after
+     * the last token read.
+     */
+    private static final class Header {
+        private static final int MAX_HEADER_BYTES = 4096;
+
+        private final ByteBuffer data;
+        private final int limit;
+        int position;
+
+        Header(ByteBuffer data) {
+            this.data = data;
+            this.limit = Math.min(data.capacity(), MAX_HEADER_BYTES);
+        }
+
+        String token() throws IOException {
+            while (position < limit) {
+                char c = (char) data.get(position);
+                if (c == '#') {
+                    skipLine();
+                } else if (Character.isWhitespace(c)) {
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            int start = position;
+            while (position < limit && !Character.isWhitespace((char) data.get(position))) {
+                position++;
+            }
+            if (start == position || position == limit) {
+                throw new IOException("Truncated or malformed header");
+            }
+            byte[] token = new byte[position - start];
+            data.get(start, token);
+            return new String(token, StandardCharsets.US_ASCII);
+        }
+
+        void skipLine() {
+            while (position < limit && data.get(position) != '\n') {
+                position++;
+            }
+        }
+    }
+}
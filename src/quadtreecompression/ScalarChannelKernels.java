@@ -0,0 +1,15 @@
+package quadtreecompression;
+
+class ScalarChannelKernels implements ChannelKernels {
+    public long sumAbsoluteDeviation(byte[] plane, int from, int to, int average) {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += Math.abs((plane[i] & 0xFF) - average);
+        }
+        return sum;
+    }
+
+    public boolean isVectorized() {
+        return false;
+    }
+}
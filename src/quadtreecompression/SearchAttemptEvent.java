@@ -0,0 +1,32 @@
+package quadtreecompression;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+
+@Name("quadtreecompression.SearchAttempt")
+@Label("Threshold Search Attempt")
+@Category("Quadtree Compression")
+@Description("One candidate threshold cut, rendered and encoded by the threshold search")
+class SearchAttemptEvent extends Event {
+    @Label("Attempt")
+    int number;
+
+    @Label("Threshold")
+    double threshold;
+
+    @Label("Encoded Size")
+    @DataAmount
+    long size;
+
+    @Label("Compression")
+    @Percentage
+    double compression;
+
+    @Label("Node Count")
+    int nodeCount;
+}
@@ -0,0 +1,146 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Compresses the frames of a {@link FrameSequence} one after another, reusing
+ * the previous frame's tree wherever the picture did not change.
+ *
+ * <p>Each frame is diffed against the one before it and built with
+ * {@link Quadtree#buildFrom(Quadtree)}, so a mostly static scene only pays for
+ * the blocks that moved. The pixel indices are handed from each frame's tree to
+ * the next and patched where the picture changed, instead of being rebuilt for
+ * every frame. The first frame, and any frame whose size differs from the one
+ * before it, is built from scratch.
+ */
+public class SequenceCompressor {
+    /**
+     * @param changedFraction share of the frame that differs from the previous
+     *        one, 1.0 for frames built from scratch
+     */
+    public record Frame(int index, Quadtree tree, double changedFraction, long buildMillis) {
+    }
+
+    private final double errorThreshold;
+    private final int minBlockSize;
+    private final ErrorCalculationMethod method;
+    private int parallelism = 1;
+    private float quality = Float.NaN;
+    private CompressionMetrics metrics;
+    private Quadtree previous;
+    private PixelBuffer previousPixels;
+    private int frameCount;
+
+    public SequenceCompressor(double errorThreshold, int minBlockSize, ErrorCalculationMethod method) {
+        this.errorThreshold = errorThreshold;
+        this.minBlockSize = minBlockSize;
+        this.method = method;
+    }
+
+    /**
+     * Sets the worker count used for frames that are built from scratch.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the compression quality used when frames are written in an image
+     * format, see {@link ImageEncoder#setCompressionQuality(float)}.
+     */
+    public void setCompressionQuality(float quality) {
+        if (!(quality >= 0.0f && quality <= 1.0f)) {
+            throw new IllegalArgumentException("Compression quality must be between 0.0 and 1.0");
+        }
+        this.quality = quality;
+    }
+
+    /**
+     * Collects decode, build, render and encode times and the build counters of
+     * every frame into the given metrics. Reused nodes are not counted as built.
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compresses the next frame of the sequence. The tree of the previous frame
+     * hands its indices on to the new one; it can still be drawn and encoded,
+     * but updating it afterwards rebuilds its indices from scratch.
+     */
+    public Frame compress(BufferedImage image) {
+        long start = System.nanoTime();
+        Quadtree tree = new Quadtree(image, errorThreshold, minBlockSize, method);
+        tree.setParallelism(parallelism);
+        tree.setMetrics(metrics);
+
+        PixelBuffer pixels = PixelBuffer.fromImage(image);
+        double changedFraction = 1.0;
+        if (previousPixels != null && previousPixels.getWidth() == pixels.getWidth() && previousPixels.getHeight() == pixels.getHeight()) {
+            ChangeMask changes = ChangeMask.between(previousPixels, pixels);
+            changedFraction = changes.changedFraction();
+            tree.buildFrom(previous, pixels, changes, true);
+        } else {
+            tree.build(pixels);
+        }
+
+        previous = tree;
+        previousPixels = pixels;
+        return new Frame(frameCount++, tree, changedFraction, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Compresses every remaining frame and writes each one to
+     * {@code frame_NNNN.<format>} in the output directory.
+     *
+     * @param format ImageIO format name, {@code qtc} or {@code qtp}
+     * @param listener receives every frame once it has been written
+     * @return the number of frames written
+     */
+    public int compress(FrameSequence frames, Path outputDirectory, String format, Consumer<Frame> listener) throws IOException {
+        Files.createDirectories(outputDirectory);
+        ImageEncoder encoder = new ImageEncoder(format);
+        if (!Float.isNaN(quality)) {
+            encoder.setCompressionQuality(quality);
+        }
+        int written = 0;
+        while (true) {
+            BufferedImage image;
+            try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.DECODE)) {
+                image = frames.nextFrame();
+            }
+            if (image == null) {
+                return written;
+            }
+
+            Frame frame = compress(image);
+            Path output = outputDirectory.resolve(String.format("frame_%04d.%s", frame.index(), format));
+            if (format.equals(QtcWriter.EXTENSION)) {
+                try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE);
+                        OutputStream out = Files.newOutputStream(output)) {
+                    QtcWriter.write(frame.tree(), out);
+                }
+            } else if (format.equals(ProgressiveWriter.EXTENSION)) {
+                try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE);
+                        OutputStream out = Files.newOutputStream(output)) {
+                    ProgressiveWriter.write(frame.tree(), out);
+                }
+            } else {
+                BufferedImage compressed = frame.tree().getCompressedImage();
+                try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE)) {
+                    encoder.write(compressed, output);
+                }
+            }
+            written++;
+            listener.accept(frame);
+        }
+    }
+}
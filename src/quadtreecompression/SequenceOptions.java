@@ -0,0 +1,97 @@
+package quadtreecompression;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Command-line options for {@link SequenceCompressor}.
+ */
+public class SequenceOptions {
+    public static final String USAGE = String.join("\n",
+            "Usage: java Main --sequence <gif|dir> --output <dir> --method <method> --threshold <value> --min-block <n> [options]",
+            "",
+            "  --sequence <gif|dir>  animated GIF, or directory of numbered PNG or PPM/PGM/PAM frames",
+            "  --output <dir>        directory for the compressed frames",
+            "  --method <method>     variance, mad, mpd, entropy or ssim",
+            "  --threshold <value>   error threshold",
+            "  --min-block <n>       minimum block area",
+            "  --format <ext>        output format, e.g. png, qtc or qtp (default png)",
+            "  --quality <fraction>  PNG or JPEG compression quality, 0.0-1.0 (default: writer default)");
+
+    private Path input;
+    private Path outputDirectory;
+    private ErrorCalculationMethod method;
+    private double threshold = Double.NaN;
+    private int minimumBlockSize = 0;
+    private String format = "png";
+    private float quality = Float.NaN;
+
+    public static SequenceOptions parse(String[] args) {
+        SequenceOptions options = new SequenceOptions();
+        for (int i = 0; i < args.length; i++) {
+            String flag = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + flag);
+            }
+            String value = args[++i];
+            switch (flag) {
+                case "--sequence" -> options.input = Path.of(value);
+                case "--output" -> options.outputDirectory = Path.of(value);
+                case "--method" -> options.method = BatchOptions.parseMethod(value);
+                case "--threshold" -> options.threshold = BatchOptions.parseDouble(flag, value);
+                case "--min-block" -> options.minimumBlockSize = BatchOptions.parseInt(flag, value);
+                case "--format" -> options.format = value.toLowerCase(Locale.ROOT);
+                case "--quality" -> options.quality = (float) BatchOptions.parseDouble(flag, value);
+                default -> throw new IllegalArgumentException("Unknown option: " + flag);
+            }
+        }
+        options.validate();
+        return options;
+    }
+
+    private void validate() {
+        if (input == null || outputDirectory == null || method == null) {
+            throw new IllegalArgumentException("--sequence, --output and --method are required");
+        }
+        if (Double.isNaN(threshold) || threshold < 0.0) {
+            throw new IllegalArgumentException("--threshold is required and must not be negative");
+        }
+        if (minimumBlockSize < 1) {
+            throw new IllegalArgumentException("--min-block must be at least 1");
+        }
+        if (!Float.isNaN(quality) && !(quality >= 0.0f && quality <= 1.0f)) {
+            throw new IllegalArgumentException("--quality must be between 0.0 and 1.0");
+        }
+    }
+
+    public Path getInput() {
+        return input;
+    }
+
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public ErrorCalculationMethod getMethod() {
+        return method;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public int getMinimumBlockSize() {
+        return minimumBlockSize;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the compression quality for image formats, or {@code NaN} to keep the writer's default.
+     */
+    public float getQuality() {
+        return quality;
+    }
+}
@@ -0,0 +1,81 @@
+package quadtreecompression;
+
+/**
+ * Command-line options for {@link CompressionServer}.
+ */
+public class ServerOptions {
+    public static final String USAGE = String.join("\n",
+            "Usage: java Main --serve [options]",
+            "",
+            "  --port <n>            port to listen on (default 8080, 0 picks a free port)",
+            "  --max-builds <n>      images compressed at the same time (default: processor count)",
+            "  --queue-timeout <ms>  how long a request may wait for a build slot (default 30000)",
+            "  --max-upload <mb>     largest accepted upload in megabytes (default 64)",
+            "  --max-pixels <n>      largest accepted image in pixels, width times height (default 100000000)",
+            "  --cache <mb>          memory for cached images, indices and trees (default 256)");
+
+    private int port = 8080;
+    private int maxConcurrentBuilds = Runtime.getRuntime().availableProcessors();
+    private long queueTimeoutMillis = 30_000;
+    private int maxUploadMegabytes = 64;
+    private int maxPixels = 100_000_000;
+    private int cacheMegabytes = 256;
+
+    public static ServerOptions parse(String[] args) {
+        ServerOptions options = new ServerOptions();
+        for (int i = 0; i < args.length; i++) {
+            String flag = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + flag);
+            }
+            String value = args[++i];
+            switch (flag) {
+                case "--port" -> options.port = BatchOptions.parseInt(flag, value);
+                case "--max-builds" -> options.maxConcurrentBuilds = BatchOptions.parseInt(flag, value);
+                case "--queue-timeout" -> options.queueTimeoutMillis = BatchOptions.parseInt(flag, value);
+                case "--max-upload" -> options.maxUploadMegabytes = BatchOptions.parseInt(flag, value);
+                case "--max-pixels" -> options.maxPixels = BatchOptions.parseInt(flag, value);
+                case "--cache" -> options.cacheMegabytes = BatchOptions.parseInt(flag, value);
+                default -> throw new IllegalArgumentException("Unknown option: " + flag);
+            }
+        }
+        options.validate();
+        return options;
+    }
+
+    private void validate() {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("--port must be between 0 and 65535");
+        }
+        if (maxConcurrentBuilds < 1 || maxUploadMegabytes < 1 || maxPixels < 1 || cacheMegabytes < 1) {
+            throw new IllegalArgumentException("--max-builds, --max-upload, --max-pixels and --cache must be at least 1");
+        }
+        if (queueTimeoutMillis < 0) {
+            throw new IllegalArgumentException("--queue-timeout must not be negative");
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getMaxConcurrentBuilds() {
+        return maxConcurrentBuilds;
+    }
+
+    public long getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+
+    public long getMaxUploadBytes() {
+        return maxUploadMegabytes * 1024L * 1024L;
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    public long getCacheBytes() {
+        return cacheMegabytes * 1024L * 1024L;
+    }
+}
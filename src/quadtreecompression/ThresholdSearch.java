@@ -0,0 +1,289 @@
+package quadtreecompression;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Searches for the error threshold whose compressed output reaches a target
+ * compression percentage.
+ *
+ * <p>Every round evaluates several thresholds at once on a thread pool, each one
+ * cut from the same fully built {@link CompactQuadtree}, rendered and encoded
+ * into a sink that only counts bytes to measure its size. Compression grows
+ * with the threshold, so the results shrink the bracket around the smallest
+ * threshold that still meets the target. Probes are spaced geometrically because
+ * compression changes fastest at low thresholds. The search stops once a result
+ * lands within the tolerance above the target or the attempt budget runs out.
+ */
+public class ThresholdSearch {
+    public static final double DEFAULT_TOLERANCE = 0.01;
+
+    public record Attempt(int number, double threshold, long size, double compression, int nodeCount,
+            long cutMillis, long renderMillis, long encodeMillis) {
+        public long totalMillis() {
+            return cutMillis + renderMillis + encodeMillis;
+        }
+    }
+
+    public record Result(double threshold, double compression, boolean targetReached, List<Attempt> attempts) {
+    }
+
+    private final CompactQuadtree fullTree;
+    private final String format;
+    private final long originalSize;
+    private final double targetCompression;
+    private ImageEncoder encoder;
+    private int maxAttempts = 10;
+    private int threadCount = 1;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private Consumer<Attempt> listener = attempt -> { };
+    private CompressionMetrics metrics;
+
+    /**
+     * @param fullTree tree built with {@link CompactQuadtree#buildFull()}
+     * @param format ImageIO format name, or {@code qtc}, used to measure the encoded size
+     * @param originalSize size of the source file in bytes
+     * @param targetCompression minimum compression to reach, between 0.0 and 1.0
+     */
+    public ThresholdSearch(CompactQuadtree fullTree, String format, long originalSize, double targetCompression) {
+        this.fullTree = fullTree;
+        this.format = format;
+        this.originalSize = originalSize;
+        this.targetCompression = targetCompression;
+        this.encoder = new ImageEncoder(format);
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Sets how far above the target a result may land and still end the search early.
+     */
+    public void setTolerance(double tolerance) {
+        if (tolerance < 0.0) {
+            throw new IllegalArgumentException("Tolerance must not be negative");
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Sets the encoder used to measure the size of image formats, so that the
+     * search uses the same compression settings as the final write.
+     */
+    public void setEncoder(ImageEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Registers a callback that receives every attempt as soon as its round completes.
+     */
+    public void setListener(Consumer<Attempt> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Records the search time and every attempt into the given metrics.
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the smallest threshold worth searching for the given method.
+     */
+    public static double getMinThresholdForMethod(ErrorCalculationMethod method) {
+        switch (method) {
+            case ErrorCalculationMethod.VARIANCE -> {
+                return 1.0;
+            }
+            case ErrorCalculationMethod.MAD -> {
+                return 0.5;
+            }
+            case ErrorCalculationMethod.MAX_PIXEL_DIFFERENCE -> {
+                return 1.0;
+            }
+            case ErrorCalculationMethod.ENTROPY -> {
+                return 0.05;
+            }
+            case ErrorCalculationMethod.SSIM -> {
+                return 0.1;
+            }
+            default -> {
+                return 0.1;
+            }
+        }
+    }
+
+    /**
+     * Returns the largest meaningful threshold for the given method.
+     */
+    public static double getMaxThresholdForMethod(ErrorCalculationMethod method) {
+        switch (method) {
+            case ErrorCalculationMethod.VARIANCE -> {
+                return 16256.25;
+            }
+            case ErrorCalculationMethod.MAD -> {
+                return 127.25;
+            }
+            case ErrorCalculationMethod.MAX_PIXEL_DIFFERENCE -> {
+                return 255.0;
+            }
+            case ErrorCalculationMethod.ENTROPY -> {
+                return 8.0;
+            }
+            case ErrorCalculationMethod.SSIM -> {
+                return 1.0;
+            }
+            default -> {
+                return 100.0;
+            }
+        }
+    }
+
+    public Result search(double minThreshold, double maxThreshold) throws IOException {
+        List<Attempt> attempts = new ArrayList<>();
+        double low = minThreshold;
+        double high = maxThreshold;
+
+        Attempt bestTarget = null;
+        Attempt bestOverall = null;
+        boolean done = false;
+
+        try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.SEARCH);
+                ExecutorService pool = Executors.newFixedThreadPool(threadCount)) {
+            while (!done && attempts.size() < maxAttempts) {
+                int probes = Math.min(threadCount, maxAttempts - attempts.size());
+                // The first round always includes the upper bound so an unreachable target is detected at once
+                boolean firstRound = attempts.isEmpty();
+                List<Callable<Attempt>> tasks = new ArrayList<>();
+                for (int i = 1; i <= probes; i++) {
+                    double fraction = firstRound ? (double) i / probes : (double) i / (probes + 1);
+                    double threshold = interpolate(low, high, fraction);
+                    int number = attempts.size() + i;
+                    tasks.add(() -> evaluate(number, threshold));
+                }
+
+                for (Attempt attempt : runRound(pool, tasks)) {
+                    attempts.add(attempt);
+                    listener.accept(attempt);
+
+                    if (bestOverall == null || attempt.compression() > bestOverall.compression()) {
+                        bestOverall = attempt;
+                    }
+                    if (attempt.compression() >= targetCompression) {
+                        high = Math.min(high, attempt.threshold());
+                        if (bestTarget == null || attempt.compression() < bestTarget.compression()) {
+                            bestTarget = attempt;
+                        }
+                        if (attempt.compression() - targetCompression <= tolerance) {
+                            done = true;
+                        }
+                    } else {
+                        low = Math.max(low, attempt.threshold());
+                    }
+                }
+
+                if (firstRound && bestTarget == null) {
+                    // Even the largest threshold misses the target, so no smaller one will reach it
+                    done = true;
+                }
+                if (high - low <= Math.ulp(high) * 16) {
+                    done = true;
+                }
+            }
+        }
+
+        if (bestTarget != null) {
+            return new Result(bestTarget.threshold(), bestTarget.compression(), true, Collections.unmodifiableList(attempts));
+        }
+        return new Result(bestOverall.threshold(), bestOverall.compression(), false, Collections.unmodifiableList(attempts));
+    }
+
+    private static double interpolate(double low, double high, double fraction) {
+        if (low > 0.0) {
+            return low * Math.pow(high / low, fraction);
+        }
+        return low + (high - low) * fraction;
+    }
+
+    private Attempt evaluate(int number, double threshold) throws IOException {
+        SearchAttemptEvent event = new SearchAttemptEvent();
+        event.begin();
+        long start = System.nanoTime();
+        CompressedTree tree = fullTree.cutAt(threshold);
+        long cutEnd = System.nanoTime();
+        long size;
+        long renderEnd;
+        if (QtcWriter.EXTENSION.equals(format)) {
+            // The native format's size follows from the node count, there is nothing to render or write
+            renderEnd = cutEnd;
+            size = QtcWriter.encodedSize(tree.getNodeCount());
+        } else if (ProgressiveWriter.EXTENSION.equals(format)) {
+            renderEnd = cutEnd;
+            long[] levelEnds = ProgressiveWriter.write(tree, OutputStream.nullOutputStream());
+            size = levelEnds[levelEnds.length - 1];
+        } else {
+            BufferedImage image = tree.getCompressedImage();
+            renderEnd = System.nanoTime();
+            size = encoder.measure(image);
+        }
+        long encodeEnd = System.nanoTime();
+
+        double compression = 1.0 - ((double) size / originalSize);
+        Attempt attempt = new Attempt(number, threshold, size, compression, tree.getNodeCount(),
+                (cutEnd - start) / 1_000_000, (renderEnd - cutEnd) / 1_000_000, (encodeEnd - renderEnd) / 1_000_000);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.number = number;
+            event.threshold = threshold;
+            event.size = size;
+            event.compression = compression;
+            event.nodeCount = attempt.nodeCount();
+            event.commit();
+        }
+        if (metrics != null) {
+            metrics.recordAttempt(attempt);
+        }
+        return attempt;
+    }
+
+    private static List<Attempt> runRound(ExecutorService pool, List<Callable<Attempt>> tasks) throws IOException {
+        List<Attempt> results = new ArrayList<>();
+        try {
+            for (Future<Attempt> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Threshold search interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+}
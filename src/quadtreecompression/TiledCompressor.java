@@ -0,0 +1,133 @@
+package quadtreecompression;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Compresses images that are too large to decode at once by working on one
+ * tile at a time.
+ *
+ * <p>The image is decoded one full-width band of tile rows at a time through
+ * {@link ImageReadParam#setSourceRegion}, and each tile of the band is
+ * compressed with its own {@link Quadtree} and written out immediately, so peak
+ * memory depends on the band size rather than the image size. The output is a
+ * tiled {@code .qtc} container (big-endian):
+ * <pre>
+ *   magic       4 bytes  "QTCT"
+ *   width       int
+ *   height      int
+ *   tile size   int
+ *   tiles       one complete QTC1 stream per tile, row-major
+ * </pre>
+ * {@link QtcReader} reads both plain and tiled files.
+ *
+ * <p>Formats such as PNG and JPEG are decoded sequentially, so reading a region
+ * scans every row above it. Decoding whole bands rather than single tiles means
+ * one such scan per band instead of one per tile.
+ */
+public class TiledCompressor {
+    public static final int DEFAULT_TILE_SIZE = 1024;
+    static final byte[] MAGIC = {'Q', 'T', 'C', 'T'};
+
+    private final double errorThreshold;
+    private final int minBlockSize;
+    private final ErrorCalculationMethod method;
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private int parallelism = 1;
+    private CompressionMetrics metrics;
+
+    public TiledCompressor(double errorThreshold, int minBlockSize, ErrorCalculationMethod method) {
+        this.errorThreshold = errorThreshold;
+        this.minBlockSize = minBlockSize;
+        this.method = method;
+    }
+
+    public void setTileSize(int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be at least 1");
+        }
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Sets the worker count used to build each tile's tree.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Collects decode, build and encode times and the build counters of every
+     * tile into the given metrics.
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void compress(File input, OutputStream output) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null) {
+                throw new IOException("Cannot open image: " + input);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + input);
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, false, true);
+                compress(reader, output);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private void compress(ImageReader reader, OutputStream output) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+        data.write(MAGIC);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeInt(tileSize);
+
+        for (int tileY = 0; tileY < height; tileY += tileSize) {
+            int bandHeight = Math.min(tileSize, height - tileY);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, tileY, width, bandHeight));
+            BufferedImage band;
+            try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.DECODE)) {
+                band = reader.read(0, param);
+            }
+
+            for (int tileX = 0; tileX < width; tileX += tileSize) {
+                // A view into the band, read in place by PixelBuffer
+                BufferedImage tile = band.getSubimage(tileX, 0, Math.min(tileSize, width - tileX), bandHeight);
+                Quadtree quadtree = new Quadtree(tile, errorThreshold, minBlockSize, method);
+                quadtree.setParallelism(parallelism);
+                quadtree.setMetrics(metrics);
+                quadtree.build();
+                try (CompressionMetrics.PhaseTimer timer = CompressionMetrics.time(metrics, CompressionMetrics.Phase.ENCODE)) {
+                    QtcWriter.write(quadtree, data);
+                }
+            }
+        }
+        data.flush();
+    }
+}
@@ -0,0 +1,11 @@
+package quadtreecompression;
+
+/**
+ * Receives the nodes of a {@link CompressedTree} in pre-order. Children of a split
+ * node follow it in the order top-left, top-right, bottom-left, bottom-right.
+ */
+public interface TreeVisitor {
+    void visitSplit(int x, int y, int width, int height);
+
+    void visitLeaf(int x, int y, int width, int height, int rgb);
+}
@@ -0,0 +1,50 @@
+package quadtreecompression;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ChannelKernels} on the Vector API. Bytes are loaded a quarter of the
+ * integer vector width at a time and zero-extended into int lanes, which keeps
+ * the arithmetic exact and the loads native on AVX2 and AVX-512.
+ */
+class VectorChannelKernels implements ChannelKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED.withShape(
+            VectorShape.forBitSize(Math.max(64, INTS.vectorBitSize() / 4)));
+
+    private final ScalarChannelKernels tail = new ScalarChannelKernels();
+
+    /**
+     * Narrower vectors than 256 bits gain too little over the scalar loop to be worth it.
+     */
+    static boolean isSupported() {
+        return INTS.vectorBitSize() >= 256 && BYTES.length() == INTS.length();
+    }
+
+    public long sumAbsoluteDeviation(byte[] plane, int from, int to, int average) {
+        int lanes = INTS.length();
+        if (to - from < 2 * lanes) {
+            // Setting up and reducing the vectors costs more than a short row saves
+            return tail.sumAbsoluteDeviation(plane, from, to, average);
+        }
+
+        IntVector averages = IntVector.broadcast(INTS, average);
+        IntVector sums = IntVector.zero(INTS);
+        int i = from;
+        // Each lane adds at most 255 per step, so int lanes cannot overflow within a single row
+        for (int bound = to - lanes; i <= bound; i += lanes) {
+            IntVector values = (IntVector) ByteVector.fromArray(BYTES, plane, i)
+                    .convertShape(VectorOperators.ZERO_EXTEND_B2I, INTS, 0);
+            sums = sums.add(values.sub(averages).abs());
+        }
+        return sums.reduceLanesToLong(VectorOperators.ADD) + tail.sumAbsoluteDeviation(plane, i, to, average);
+    }
+
+    public boolean isVectorized() {
+        return true;
+    }
+}
@@ -0,0 +1,72 @@
+package quadtreecompression;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Maps a rectangle of a compressed image onto an output image of any size, so
+ * that a tree can render a region or a scaled view without drawing the whole
+ * picture first.
+ *
+ * <p>Each output pixel takes the color of the leaf under the center of its
+ * footprint in the source, which is nearest-neighbor scaling. A block is drawn
+ * to the output pixels whose centers it contains, and a block that contains no
+ * center is skipped along with its whole subtree. A downscaled view of a deep
+ * tree therefore only descends as far as the output resolution requires.
+ */
+final class Viewport {
+    private final int areaX, areaY, areaWidth, areaHeight;
+    private final int outputWidth, outputHeight;
+    private final BufferedImage output;
+    private final int[] pixels;
+
+    Viewport(int imageWidth, int imageHeight, Rectangle area, int outputWidth, int outputHeight) {
+        if (area.isEmpty() || !new Rectangle(0, 0, imageWidth, imageHeight).contains(area)) {
+            throw new IllegalArgumentException("The area must be non-empty and lie inside the image");
+        }
+        if (outputWidth < 1 || outputHeight < 1) {
+            throw new IllegalArgumentException("Output size must be at least 1 × 1");
+        }
+        this.areaX = area.x;
+        this.areaY = area.y;
+        this.areaWidth = area.width;
+        this.areaHeight = area.height;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.output = RasterFill.newImage(outputWidth, outputHeight);
+        this.pixels = RasterFill.pixels(output);
+    }
+
+    BufferedImage getImage() {
+        return output;
+    }
+
+    /**
+     * Returns whether any output pixel samples the block.
+     */
+    boolean samples(int x, int y, int width, int height) {
+        return column(x) < column(x + width) && row(y) < row(y + height);
+    }
+
+    /**
+     * Paints the output pixels that sample the block.
+     */
+    void fill(int x, int y, int width, int height, int rgb) {
+        int left = column(x);
+        int top = row(y);
+        RasterFill.fill(pixels, outputWidth, left, top, column(x + width) - left, row(y + height) - top, rgb);
+    }
+
+    /**
+     * Returns the first output column whose center lies at or right of source
+     * column {@code x}, i.e. the smallest {@code u} with
+     * {@code areaX + (u + 0.5) * areaWidth / outputWidth >= x}.
+     */
+    private int column(int x) {
+        return Math.clamp(Math.ceilDiv(2L * (x - areaX) * outputWidth - areaWidth, 2L * areaWidth), 0, outputWidth);
+    }
+
+    private int row(int y) {
+        return Math.clamp(Math.ceilDiv(2L * (y - areaY) * outputHeight - areaHeight, 2L * areaHeight), 0, outputHeight);
+    }
+}